@@ -0,0 +1,207 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+/**
+ * Live metrics of an import : bytes consumed, rows parsed, written and
+ * skipped, and the time spent parsing and writing. Updated by the
+ * {@link MembersImportEngine} (the parsing metrics by its parsing thread, the
+ * writing metrics by its writing thread), and given to its
+ * {@link MembersImportEngine.ProgressListener}.<br />
+ * Each metric only has one writer at a time (the parsers of a multi-source
+ * import synchronize on the stats), and all of them are volatile : the
+ * progress read by the UI thread is always up to date.
+ */
+public class ImportStats {
+
+    /** Size of the imported file (in bytes) */
+    private final long fileSize;
+
+    /** Byte offset from which the file is imported (resumed import) */
+    private final long startOffset;
+
+    /** Start time of the import (ms) */
+    private final long startTime = System.currentTimeMillis();
+
+    /** End time of the import (ms), 0 while running */
+    private volatile long endTime;
+
+    /** Number of bytes read from the file */
+    private volatile long bytesRead;
+
+    /** Number of rows parsed */
+    private volatile int rowsParsed;
+
+    /** Number of rows written (inserted or updated) */
+    private volatile int rowsWritten;
+
+    /** Number of rows skipped (unchanged or older) */
+    private volatile int rowsSkipped;
+
+    /** Time spent reading and parsing the file (ns) */
+    private volatile long parseTime;
+
+    /** Time spent writing in the database (ns) */
+    private volatile long writeTime;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build new stats for the import of a file of the given size.
+     * 
+     * @param fileSize in bytes
+     * @param startOffset byte offset from which the file is imported (0,
+     *            unless the import is resumed)
+     */
+    ImportStats(long fileSize, long startOffset) {
+        this.fileSize = fileSize;
+        this.startOffset = startOffset;
+        this.bytesRead = startOffset;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @return the size of the imported file (in bytes)
+     */
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the number of bytes read from the file
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return the number of rows parsed
+     */
+    public int getRowsParsed() {
+        return rowsParsed;
+    }
+
+    /**
+     * @return the number of rows written (inserted or updated)
+     */
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    /**
+     * @return the number of rows skipped (unchanged or older)
+     */
+    public int getRowsSkipped() {
+        return rowsSkipped;
+    }
+
+    /**
+     * @return the time spent reading and parsing the file (ms)
+     */
+    public long getParseTime() {
+        return parseTime / 1000000;
+    }
+
+    /**
+     * @return the time spent writing in the database (ms)
+     */
+    public long getWriteTime() {
+        return writeTime / 1000000;
+    }
+
+    /**
+     * @return the time elapsed since the start of the import (ms)
+     */
+    public long getElapsedTime() {
+        return (endTime > 0 ? endTime : System.currentTimeMillis()) - startTime;
+    }
+
+    /**
+     * @return the progress of the import (percentage of the file consumed)
+     */
+    public int getPercentage() {
+        if (fileSize <= 0) {
+            return 0;
+        }
+        return (int)Math.min(100, bytesRead * 100 / fileSize);
+    }
+
+    /**
+     * @return the number of rows parsed per second
+     */
+    public int getRowsPerSecond() {
+        long elapsed = getElapsedTime();
+        return elapsed > 0 ? (int)(rowsParsed * 1000L / elapsed) : 0;
+    }
+
+    /**
+     * @return the estimated remaining time (ms), based on the bytes consumed
+     *         so far, or -1 if unknown
+     */
+    public long getRemainingTime() {
+        long bytesConsumed = bytesRead - startOffset;
+        if (bytesConsumed <= 0 || fileSize <= 0) {
+            return -1;
+        }
+        long remainingBytes = Math.max(0, fileSize - bytesRead);
+        return getElapsedTime() * remainingBytes / bytesConsumed;
+    }
+
+    /*
+     * Updates (from the engine)
+     */
+
+    void setBytesRead(long bytesRead) {
+        this.bytesRead = bytesRead;
+    }
+
+    void addParsed(long time) {
+        rowsParsed++;
+        parseTime += time;
+    }
+
+    void addParseTime(long time) {
+        parseTime += time;
+    }
+
+    void addWritten(int rows, long time) {
+        rowsWritten += rows;
+        writeTime += time;
+    }
+
+    void addSkipped() {
+        rowsSkipped++;
+    }
+
+    void addParsedBlock(int rows, int skipped, long bytes, long time) {
+        // several parsing threads : the caller synchronizes on this instance
+        rowsParsed += rows;
+        rowsSkipped += skipped;
+        bytesRead += bytes;
+        parseTime += time;
+    }
+
+    void finish() {
+        endTime = System.currentTimeMillis();
+    }
+
+}
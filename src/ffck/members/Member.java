@@ -41,6 +41,34 @@ public class Member {
     /** Content URI used by the content provider */
     public static final Uri CONTENT_URI = Uri.parse("content://ffck.members/members");
 
+    /**
+     * Full-text search URI : append the (URI-encoded) query as its last path
+     * segment. The names, addresses, postal codes, cities and emails of the
+     * members are searched, every word of the query being a prefix. The
+     * members are ranked by number of matches.
+     */
+    public static final Uri SEARCH_URI = Uri.parse("content://ffck.members/members/search");
+
+    /**
+     * Query parameter of the {@link #CONTENT_URI} : when present, a bulk
+     * insert will update the members already known (by code) instead of
+     * failing on them
+     */
+    public static final String UPSERT_PARAMETER = "upsert";
+
+    /**
+     * Query parameter of the {@link #CONTENT_URI} : the maximum number of
+     * members to return (a page)
+     */
+    public static final String LIMIT_PARAMETER = "limit";
+
+    /**
+     * Query parameter of the {@link #CONTENT_URI} : the code of the last
+     * member of the previous page. Only the members after it (in the
+     * requested order, which must end with the {@link #CODE}) are returned.
+     */
+    public static final String AFTER_PARAMETER = "after";
+
     /** Unique identifier for a member (integer) */
     public static final String ID = BaseColumns._ID;
 
@@ -98,14 +126,76 @@ public class Member {
     /** year of last FFCK license, as a String, format yyyy */
     public static final String LAST_LICENSE = "last_license";
 
+    /**
+     * hash of the values of the member, as imported from the last CSV file
+     * (long). Null if the member has been modified since.
+     */
+    public static final String IMPORT_HASH = "import_hash";
+
+    /**
+     * search key of the last name (String, see {@link SearchKey}). Maintained
+     * by the content provider, never written by the clients.
+     */
+    public static final String LAST_NAME_KEY = "last_name_key";
+
+    /**
+     * search key of the first name (String, see {@link SearchKey}). Maintained
+     * by the content provider, never written by the clients.
+     */
+    public static final String FIRST_NAME_KEY = "first_name_key";
+
+    /**
+     * search key of the address (String, see {@link SearchKey}). Maintained
+     * by the content provider, never written by the clients.
+     */
+    public static final String ADDRESS_KEY = "address_key";
+
+    /**
+     * search key of the city (String, see {@link SearchKey}). Maintained by
+     * the content provider, never written by the clients.
+     */
+    public static final String CITY_KEY = "city_key";
+
+    /**
+     * search key of the email (String, see {@link SearchKey}). Maintained by
+     * the content provider, never written by the clients.
+     */
+    public static final String EMAIL_KEY = "email_key";
+
+    /**
+     * search key of the second email (String, see {@link SearchKey}).
+     * Maintained by the content provider, never written by the clients.
+     */
+    public static final String EMAIL_2_KEY = "email_2_key";
+
+    /**
+     * sort key of the last name (BLOB, see {@link SortKey}). Maintained by the
+     * content provider, never written by the clients.
+     */
+    public static final String LAST_NAME_SORT = "last_name_sort";
+
+    /**
+     * sort key of the first name (BLOB, see {@link SortKey}). Maintained by
+     * the content provider, never written by the clients.
+     */
+    public static final String FIRST_NAME_SORT = "first_name_sort";
+
     /** value of GENDER field if member is a male */
     public static final String GENDER_MALE = "M";
 
     /** value of GENDER field if member is a female */
     public static final String GENDER_FEMALE = "F";
 
+    /** The 'order by' for sorting lists by last name, in the French order */
+    public static final String ORDER_BY_LAST_NAME = LAST_NAME_SORT + " ASC, " + FIRST_NAME_SORT
+            + " ASC, " + CODE + " ASC";
+
+    /** The 'order by' for sorting lists by first name, in the French order */
+    public static final String ORDER_BY_FIRST_NAME = FIRST_NAME_SORT + " ASC, " + LAST_NAME_SORT
+            + " ASC, " + CODE + " ASC";
+
     /** The default 'order by' for sorting lists */
-    public static final String DEFAULT_ORDER_BY = LAST_NAME + " ASC";
+    public static final String DEFAULT_ORDER_BY = ORDER_BY_LAST_NAME;
 
     /*
      * Attributes
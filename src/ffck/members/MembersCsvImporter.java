@@ -16,43 +16,130 @@
 
 package ffck.members;
 
-import android.content.ContentValues;
-import android.content.Context;
-import android.text.TextUtils;
-import android.widget.Toast;
-
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
+import ffck.members.importer.ChannelReader;
+import ffck.members.importer.ColumnPlan;
+import ffck.members.importer.CsvChunker;
+import ffck.members.importer.CsvTokenizer;
+import ffck.members.importer.ImportCheckpoint;
+import ffck.members.importer.ImportSource;
+import ffck.members.importer.MemberRecord;
+import ffck.members.importer.CsvChunker.Chunk;
+
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
 import java.util.HashMap;
-import java.util.List;
-import java.util.Locale;
+import java.util.LinkedList;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * A simple CSV Importer, specific to the FFCK Members CSV format. It uses a CSV
- * file as the source, parse it and return its rows (members data) one by one
- * (see the <code>nextMember</code> method). The importer is not responsible for
- * inserting the data in the database.
+ * file (or any {@link ImportSource}, maybe compressed) as the source, parse it
+ * and return its rows (members data) one by one (see the
+ * <code>nextRecord</code> method), in a record recycled by the caller. The
+ * importer is not responsible for inserting the data in the database.<br />
+ * Big files may be parsed in parallel : the file is split in chunks (at
+ * records boundaries), which are parsed by a pool of threads. The members are
+ * still returned in the file order.<br />
+ * The importer can give a checkpoint of its position in the file (see
+ * {@link #getCheckpoint()}), and can be started from such a checkpoint to
+ * resume an interrupted import.
  */
 public class MembersCsvImporter {
 
     /** The CSV separator */
-    private static final String CSV_SEPARATOR = ";";
+    private static final char CSV_SEPARATOR = ';';
+
+    /** Minimum size of a file (in bytes) to parse it in parallel */
+    private static final long PARALLEL_THRESHOLD = 1024 * 1024;
+
+    /** Size of the chunks (in chars) when parsing in parallel */
+    private static final int CHUNK_SIZE = 256 * 1024;
 
     /** Static mapping between the CSV header and the database columns */
     private static final Map<String, String> MAPPING = new HashMap<String, String>();
 
-    /** The buffered reader instance used to read data from the CSV file */
-    private BufferedReader br;
+    /** The tokenizer instance used to read data from the CSV file */
+    private CsvTokenizer tokenizer;
+
+    /** The import plan, compiled from the CSV header */
+    private ColumnPlan plan;
+
+    /** The reader of the CSV data (after the header) */
+    private ChannelReader reader;
+
+    /** The charset of the CSV file (null if it could not be read) */
+    private Charset charset;
+
+    /** The source of the CSV data */
+    private ImportSource source;
+
+    /** Position in the source from which the data records are read */
+    private long startOffset;
+
+    /** Number of data records read so far (including the resumed ones) */
+    private int recordsRead;
+
+    /** Byte offset of the last known checkpoint */
+    private long checkpointOffset;
+
+    /** Number of data records before the last known checkpoint */
+    private int checkpointRow;
 
-    /** The CSV header tokens */
+    /** True if the import has been interrupted by an error */
+    private boolean failed;
+
+    /** The error which has interrupted the import (if any) */
+    private IOException error;
+
+    /*
+     * Parallel mode
+     */
+
+    /** The CSV header tokens (each parsing thread compiles its own plan) */
     private String[] header;
 
-    /** The android context from which the importer is used */
-    private Context context;
+    /** The chunker used to split the CSV file (null once we hit the EOF) */
+    private CsvChunker chunker;
+
+    /** The pool of threads parsing the chunks (null if not parallel) */
+    private ExecutorService executor;
+
+    /** Number of chunks that may be parsed at the same time */
+    private int maxPendingChunks;
+
+    /** The chunks being parsed, in the file order */
+    private final LinkedList<Future<ParsedChunk>> pendingChunks =
+            new LinkedList<Future<ParsedChunk>>();
+
+    /** The current (parsed) chunk, null if none */
+    private ParsedChunk currentChunk;
+
+    /** Index of the next row to return from the current chunk */
+    private int chunkIndex;
+
+    /** Byte offset of the end of the current chunk */
+    private long chunkEndOffset;
+
+    /** Number of data records before the start of the current chunk */
+    private int chunkStartRow;
+
+    /** Number of data records before the end of the current chunk */
+    private int chunkEndRow;
+
+    /** The import plan of each parsing thread */
+    private final ThreadLocal<ColumnPlan> threadPlans = new ThreadLocal<ColumnPlan>() {
+        @Override
+        protected ColumnPlan initialValue() {
+            return ColumnPlan.compile(header, MAPPING);
+        }
+    };
 
     /*
      * Static initialization
@@ -82,29 +169,35 @@ public class MembersCsvImporter {
      */
 
     /**
-     * Build a new Importer instance for the CSV file represented by the given
-     * path.
+     * Build a new Importer instance for the given source, starting from the
+     * given checkpoint. Big sources will be parsed in parallel if the device
+     * has more than one processor.
+     * 
+     * @param source of the CSV data
+     * @param checkpoint from which the import is resumed (ignored if it is not
+     *            valid for the source), or null to start from the beginning
+     */
+    public MembersCsvImporter(ImportSource source, ImportCheckpoint checkpoint) {
+        this(source, source.getLength() >= PARALLEL_THRESHOLD ? Runtime.getRuntime()
+                .availableProcessors() : 1, checkpoint);
+    }
+
+    /**
+     * Build a new Importer instance for the given source, starting from the
+     * given checkpoint.
      * 
-     * @param context android context from which this instance will be used
-     *            (usually 'this')
-     * @param path of the CSV file to be used as the source for the import
-     *            operation
-     */
-    public MembersCsvImporter(Context context, String path) {
-        this.context = context;
-        File file = new File(path);
+     * @param source of the CSV data
+     * @param threads number of threads used to parse the source. If 1, the
+     *            source is parsed sequentially by the calling thread.
+     * @param checkpoint from which the import is resumed (ignored if it is not
+     *            valid for the source), or null to start from the beginning
+     */
+    public MembersCsvImporter(ImportSource source, int threads, ImportCheckpoint checkpoint) {
+        this.source = source;
         try {
-            FileReader reader = new FileReader(file);
-            br = new BufferedReader(reader);
-            try {
-                header = readNextTokens();
-            } catch (IOException e) {
-                br.close();
-                br = null;
-                throw e;
-            }
+            open(threads, checkpoint);
         } catch (IOException e) {
-            Toast.makeText(context, e.getMessage(), Toast.LENGTH_LONG).show();
+            fail(e);
         }
     }
 
@@ -113,75 +206,140 @@ public class MembersCsvImporter {
      */
 
     /**
-     * Read the next line from the CSV file, parse the data and convert them as
-     * a Member instance.
+     * Read the next line from the CSV file, parse the data and store them in
+     * the given record (its previous values are replaced). Records without any
+     * mapped field are skipped.
      * 
-     * @return Member instance, or null is an error occurs or if we hit the end
-     *         of the file.
+     * @param record to fill, recycled by the caller from one row to the next
+     * @return true if the record has been filled, false if an error occurs or
+     *         if we hit the end of the file.
+     */
+    public boolean nextRecord(MemberRecord record) {
+        try {
+            if (executor != null) {
+                return nextParallelRecord(record);
+            }
+            while (readNextRecord()) {
+                if (plan.apply(tokenizer, record.getValues()) > 0) {
+                    record.setRawFields(tokenizer);
+                    record.setRow(recordsRead);
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            fail(e);
+            close();
+        }
+        return false;
+    }
+
+    /**
+     * Release the resources used by this importer (file, threads...). Called
+     * automatically when we hit the end of the file.
      */
-    public Member nextMember() {
-        String[] original = null;
+    public void close() {
         try {
-            original = readNextTokens();
+            if (tokenizer != null) {
+                tokenizer.close();
+            } else if (reader != null && executor != null) {
+                reader.close();
+            }
         } catch (IOException e) {
-            Toast.makeText(context, e.getMessage(), Toast.LENGTH_LONG).show();
+            // nothing more to read anyway
+        }
+        tokenizer = null;
+        plan = null;
+        chunker = null;
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
         }
-        if (original == null) {
+        pendingChunks.clear();
+        currentChunk = null;
+    }
+
+    /**
+     * Get the position in the file after the last member returned by
+     * {@link #nextRecord(MemberRecord)} (or before, when parsing in parallel :
+     * the position is then only known at the end of each chunk).
+     * 
+     * @return the checkpoint from which the import could be resumed, or null
+     *         if the file could not be opened
+     */
+    public ImportCheckpoint getCheckpoint() {
+        if (charset == null) {
             return null;
         }
+        if (tokenizer != null) {
+            long offset = reader.getByteOffset(tokenizer.getCharOffset());
+            if (offset >= 0) {
+                checkpointOffset = offset;
+                checkpointRow = recordsRead;
+            }
+        }
+        return new ImportCheckpoint(checkpointOffset, checkpointRow, charset.name());
+    }
 
-        ContentValues values = new ContentValues();
-        for (int i = 0; i < original.length; i++) {
-            String column = MAPPING.get(header[i]);
-            if (column != null) {
-                String value = original[i];
+    /**
+     * @return the number of data records read so far (including the records
+     *         before the checkpoint, when resumed)
+     */
+    public int getRecordsRead() {
+        return recordsRead;
+    }
 
-                // clean names...
-                if (column.equals(Member.FIRST_NAME) || column.equals(Member.LAST_NAME)) {
-                    value = capitalize(value);
-                }
-                // ... and cities & countries
-                if (column.equals(Member.CITY) || column.equals(Member.COUNTRY)) {
-                    value = capitalize(value);
-                }
+    /**
+     * @return the number of bytes read from the source so far (in parallel
+     *         mode, the source is read a few chunks ahead of the parsed rows).
+     *         For a compressed source, these are compressed bytes.
+     */
+    public long getBytesRead() {
+        if (reader == null) {
+            return startOffset;
+        }
+        return source.isCompressed() ? source.getRawBytesRead() : reader.getBytesRead();
+    }
 
-                // clean phone numbers
-                if (column.equals(Member.PHONE_HOME) || column.equals(Member.PHONE_MOBILE)
-                        || column.equals(Member.PHONE_MOBILE_2)
-                        || column.equals(Member.PHONE_OTHER)) {
-                    if (!TextUtils.isEmpty(value)) {
-                        value = value.replaceAll("\\.", "");
-                        value = value.replaceFirst("0", "+33");
-                    }
-                }
+    /**
+     * @return the position in the source (as {@link #getBytesRead()}) from
+     *         which the data records are read : after the header, or at the
+     *         checkpoint
+     */
+    public long getStartOffset() {
+        return startOffset;
+    }
 
-                // fix gender code
-                if (column.equals(Member.GENDER)) {
-                    if ("H".equals(value)) { // H = 'Homme'
-                        value = Member.GENDER_MALE;
-                    }
-                }
+    /**
+     * @return the size of the source (in bytes, compressed if it is), or -1 if
+     *         unknown
+     */
+    public long getFileSize() {
+        return source.getLength();
+    }
 
-                // address has the same header twice in the CSV...
-                if (column.equals(Member.ADDRESS)) {
-                    value = value.toLowerCase(Locale.FRANCE);
-                    if (values.containsKey(column)) {
-                        if (TextUtils.isEmpty(value)) {
-                            value = values.getAsString(column);
-                        } else {
-                            value = values.getAsString(column) + "\n" + value;
-                        }
-                    }
-                }
+    /**
+     * @return true if the file could not be read until its end (because of an
+     *         error)
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
 
-                values.put(column, value);
-            }
-        }
+    /**
+     * @return the error which has interrupted the reading of the file, or null
+     *         (the importer never reports its errors itself : it may be used
+     *         from a background thread)
+     */
+    public IOException getError() {
+        return error;
+    }
 
-        if (values.size() == 0) {
-            return null;
-        }
-        return new Member(values);
+    /**
+     * @return the CSV header of the source (all its columns, as read), or null
+     *         if it could not be read
+     */
+    public String[] getHeader() {
+        return header;
     }
 
     /*
@@ -189,56 +347,317 @@ public class MembersCsvImporter {
      */
 
     /**
-     * Read the next line from the CSV file, and split it in tokens (based on
-     * the CSV_SEPARATOR value). If we hit the end of the file, it will close
-     * the buffered reader.
+     * Record the error which has interrupted the import
      * 
-     * @return array of Strings representing a row, of null if EOF
-     * @throws IOException if unable to read the next line from the file
+     * @param e the error
      */
-    private String[] readNextTokens() throws IOException {
-        if (br == null) {
-            return null;
+    private void fail(IOException e) {
+        failed = true;
+        error = e;
+    }
+
+    /**
+     * Open the CSV source : read the header (the charset is detected, FFCK
+     * exports are Windows-1252), then prepare the reading of the data records
+     * from the checkpoint (or just after the header), either sequentially or
+     * in parallel.
+     * 
+     * @param threads number of parsing threads
+     * @param checkpoint from which the import is resumed (may be null)
+     * @throws IOException if unable to read the header
+     */
+    private void open(int threads, ImportCheckpoint checkpoint) throws IOException {
+        ReadableByteChannel headerChannel = source.open(0);
+        try {
+            ChannelReader headerReader = new ChannelReader(headerChannel);
+            CsvTokenizer headerTokenizer = new CsvTokenizer(headerReader, CSV_SEPARATOR);
+            if (!headerTokenizer.nextRecord()) {
+                return;
+            }
+            header = headerTokenizer.getFields();
+            charset = headerReader.getCharset();
+            checkpointOffset = headerReader.getByteOffset(headerTokenizer.getCharOffset());
+            if (checkpointOffset < 0) {
+                throw new IOException("Invalid CSV header");
+            }
+        } finally {
+            headerChannel.close();
         }
 
-        String nextLine = br.readLine();
-        if (nextLine == null) {
-            br.close();
-            br = null;
-            return null;
+        // the data records are read from a new channel, at the right offset
+        ReadableByteChannel channel = null;
+        if (checkpoint != null && charset.name().equals(checkpoint.getCharsetName())
+                && checkpoint.getByteOffset() > checkpointOffset) {
+            channel = openAtRecordBoundary(checkpoint.getByteOffset());
+            if (channel != null) {
+                checkpointOffset = checkpoint.getByteOffset();
+                checkpointRow = checkpoint.getRow();
+            }
+        }
+        if (channel == null) {
+            channel = source.open(checkpointOffset);
         }
+        startOffset = source.isCompressed() ? source.getRawBytesRead() : checkpointOffset;
+        recordsRead = checkpointRow;
+        chunkEndOffset = checkpointOffset;
+        chunkEndRow = checkpointRow;
 
-        return TextUtils.split(nextLine, CSV_SEPARATOR);
+        boolean opened = false;
+        try {
+            reader = new ChannelReader(channel, charset, checkpointOffset);
+            if (threads > 1) {
+                chunker = new CsvChunker(reader, CSV_SEPARATOR);
+                executor = Executors.newFixedThreadPool(threads);
+                maxPendingChunks = threads * 2;
+            } else {
+                tokenizer = new CsvTokenizer(reader, CSV_SEPARATOR);
+                plan = ColumnPlan.compile(header, MAPPING);
+            }
+            opened = true;
+        } finally {
+            if (!opened) {
+                channel.close();
+            }
+        }
     }
 
     /**
-     * Capitalize the given input string
+     * Open the source at the given offset, if it is a record boundary : right
+     * after a line break, and inside the source.
      * 
-     * @param input string that needs to be capitalized
-     * @return capitalized string, won't be null
-     */
-    private String capitalize(String input) {
-        if (TextUtils.isEmpty(input)) {
-            return "";
-        }
-
-        List<Character> separators = Arrays.asList(new Character[] {
-                ' ', '-', '_', ',', '.'
-        });
-        String lowerCased = input.toLowerCase(Locale.FRANCE);
-        StringBuilder output = new StringBuilder();
-        boolean needToUpperNext = true;
-        for (int i = 0; i < input.length(); i++) {
-            if (needToUpperNext) {
-                output.append(Character.toUpperCase(lowerCased.charAt(i)));
-                needToUpperNext = false;
-            } else {
-                output.append(lowerCased.charAt(i));
+     * @param offset to check
+     * @return a channel positioned at the given offset, or null if it is not a
+     *         record boundary
+     * @throws IOException if unable to read from the source
+     */
+    private ReadableByteChannel openAtRecordBoundary(long offset) throws IOException {
+        // in UTF-16LE, the line feed is followed by a 0 byte
+        int lineFeedLength = "UTF-16LE".equals(charset.name()) ? 2 : 1;
+        ReadableByteChannel channel = source.open(offset - lineFeedLength);
+        ByteBuffer lineFeed = ByteBuffer.allocate(lineFeedLength);
+        while (lineFeed.hasRemaining() && channel.read(lineFeed) >= 0) {
+            // read the line feed
+        }
+        if (!lineFeed.hasRemaining() && lineFeed.get(0) == '\n') {
+            return channel;
+        }
+        channel.close();
+        return null;
+    }
+
+    /**
+     * Retrieve the next member when parsing in parallel : from the current
+     * parsed chunk, or from the next one (waiting for it if needed).
+     * 
+     * @param record to fill
+     * @return true if the record has been filled, false if we hit the end of
+     *         the file
+     * @throws IOException if unable to read the file
+     */
+    private boolean nextParallelRecord(MemberRecord record) throws IOException {
+        while (currentChunk == null || chunkIndex >= currentChunk.count) {
+            // the previous chunk has been fully returned
+            checkpointOffset = chunkEndOffset;
+            checkpointRow = chunkEndRow;
+
+            submitChunks();
+            if (pendingChunks.isEmpty()) {
+                close();
+                return false;
+            }
+            ParsedChunk parsedChunk;
+            try {
+                parsedChunk = pendingChunks.removeFirst().get();
+            } catch (InterruptedException e) {
+                failed = true;
+                close();
+                return false;
+            } catch (ExecutionException e) {
+                close();
+                throw new IOException(e.getCause().getMessage());
+            }
+            currentChunk = parsedChunk;
+            chunkIndex = 0;
+            chunkStartRow = chunkEndRow;
+            chunkEndOffset += parsedChunk.byteLength;
+            chunkEndRow += parsedChunk.records;
+            recordsRead = chunkEndRow;
+        }
+        currentChunk.copyTo(chunkIndex, record);
+        record.setRow(chunkStartRow + currentChunk.recordNumbers[chunkIndex]);
+        chunkIndex++;
+        if (chunkIndex >= currentChunk.count) {
+            checkpointOffset = chunkEndOffset;
+            checkpointRow = chunkEndRow;
+        }
+        return true;
+    }
+
+    /**
+     * Split the file in chunks (as long as there are free slots), and submit
+     * them to the parsing threads.
+     * 
+     * @throws IOException if unable to read the file
+     */
+    private void submitChunks() throws IOException {
+        while (chunker != null && pendingChunks.size() < maxPendingChunks) {
+            Chunk chunk = chunker.nextChunk(CHUNK_SIZE);
+            if (chunk == null) {
+                chunker = null;
+                break;
+            }
+            pendingChunks.addLast(executor.submit(new ChunkParser(chunk)));
+        }
+        if (chunker == null && executor != null && pendingChunks.isEmpty()) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Read the next record from the CSV file. Its fields are then available
+     * from the tokenizer (as slices of its record buffer). If we hit the end of
+     * the file, the tokenizer will close the underlying reader.
+     * 
+     * @return true if a record is available, false if EOF
+     * @throws IOException if unable to read the next record from the file
+     */
+    private boolean readNextRecord() throws IOException {
+        if (tokenizer == null || plan == null) {
+            return false;
+        }
+
+        if (!tokenizer.nextRecord()) {
+            checkpointOffset = reader.getBytesRead();
+            checkpointRow = recordsRead;
+            tokenizer = null;
+            return false;
+        }
+        recordsRead++;
+        return true;
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * The result of the parsing of a chunk : the values of its rows are stored
+     * one after the other (COLUMNS.length slots per row) in a single array,
+     * and so are the ends of their raw fields (see
+     * {@link MemberRecord#setRawFields(String, int[], int, int)}).
+     */
+    private static class ParsedChunk {
+
+        /** The values of the rows of the chunk */
+        String[] rows = new String[ColumnPlan.COLUMNS.length * 256];
+
+        /** The number of each row in the chunk (starting at 1) */
+        int[] recordNumbers = new int[256];
+
+        /** The raw fields of each row */
+        String[] rawFields = new String[256];
+
+        /** The ends of the raw fields of the rows, one row after the other */
+        int[] rawFieldEnds = new int[256 * 24];
+
+        /** The offset in rawFieldEnds of the first field of each row, and the end */
+        int[] rawFieldOffsets = new int[257];
+
+        /** Number of rows in the chunk (with at least one mapped field) */
+        int count;
+
+        /** Number of data records in the chunk */
+        int records;
+
+        /** Number of bytes of the chunk in the file */
+        long byteLength;
+
+        /**
+         * Append a row to the chunk
+         * 
+         * @param record holding the values and raw fields of the row
+         * @param recordNumber number of the row in the chunk (starting at 1)
+         */
+        void add(MemberRecord record, int recordNumber) {
+            String[] row = record.getValues();
+            int offset = count * row.length;
+            if (count == recordNumbers.length) {
+                String[] newRows = new String[rows.length * 2];
+                System.arraycopy(rows, 0, newRows, 0, offset);
+                rows = newRows;
+                int[] newRecordNumbers = new int[count * 2];
+                System.arraycopy(recordNumbers, 0, newRecordNumbers, 0, count);
+                recordNumbers = newRecordNumbers;
+                String[] newRawFields = new String[count * 2];
+                System.arraycopy(rawFields, 0, newRawFields, 0, count);
+                rawFields = newRawFields;
+                int[] newOffsets = new int[count * 2 + 1];
+                System.arraycopy(rawFieldOffsets, 0, newOffsets, 0, count + 1);
+                rawFieldOffsets = newOffsets;
+            }
+            System.arraycopy(row, 0, rows, offset, row.length);
+            recordNumbers[count] = recordNumber;
+
+            int fieldCount = record.getRawFieldCount();
+            int fieldOffset = rawFieldOffsets[count];
+            if (fieldOffset + fieldCount > rawFieldEnds.length) {
+                int[] newEnds = new int[Math.max(rawFieldEnds.length * 2, fieldOffset
+                        + fieldCount)];
+                System.arraycopy(rawFieldEnds, 0, newEnds, 0, fieldOffset);
+                rawFieldEnds = newEnds;
+            }
+            for (int i = 0; i < fieldCount; i++) {
+                rawFieldEnds[fieldOffset + i] = record.getRawFieldEnd(i);
             }
-            if (separators.contains(lowerCased.charAt(i))) {
-                needToUpperNext = true;
+            rawFields[count] = record.getRawFields();
+            rawFieldOffsets[count + 1] = fieldOffset + fieldCount;
+            count++;
+        }
+
+        /**
+         * Copy a row of the chunk (values and raw fields) to the given record
+         * 
+         * @param index of the row in the chunk
+         * @param record to fill
+         */
+        void copyTo(int index, MemberRecord record) {
+            record.copyFrom(rows, index * ColumnPlan.COLUMNS.length);
+            int fieldOffset = rawFieldOffsets[index];
+            record.setRawFields(rawFields[index], rawFieldEnds, fieldOffset,
+                    rawFieldOffsets[index + 1] - fieldOffset);
+        }
+    }
+
+    /**
+     * Task parsing a chunk of the CSV file, with the plan of the current
+     * thread.
+     */
+    private class ChunkParser implements Callable<ParsedChunk> {
+
+        /** The chunk to parse */
+        private final Chunk chunk;
+
+        ChunkParser(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public ParsedChunk call() throws IOException {
+            ColumnPlan threadPlan = threadPlans.get();
+            CsvTokenizer chunkTokenizer = new CsvTokenizer(chunk.chars, chunk.length,
+                    CSV_SEPARATOR);
+            MemberRecord chunkRecord = new MemberRecord();
+            ParsedChunk parsedChunk = new ParsedChunk();
+            while (chunkTokenizer.nextRecord()) {
+                parsedChunk.records++;
+                if (threadPlan.apply(chunkTokenizer, chunkRecord.getValues()) > 0) {
+                    chunkRecord.setRawFields(chunkTokenizer);
+                    parsedChunk.add(chunkRecord, parsedChunk.records);
+                }
             }
+            parsedChunk.byteLength = reader.getEncodedLength(chunk.chars, 0, chunk.length);
+            return parsedChunk;
         }
-        return output.toString();
     }
+
 }
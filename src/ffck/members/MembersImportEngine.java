@@ -0,0 +1,1027 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+import ffck.members.importer.ImportCheckpoint;
+import ffck.members.importer.ImportManifest;
+import ffck.members.importer.ImportSource;
+import ffck.members.importer.LicenseIndex;
+import ffck.members.importer.MemberRecord;
+import ffck.members.importer.QuarantineWriter;
+import ffck.members.provider.MembersProvider;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Environment;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Imports the members of a CSV file, or of any {@link ImportSource} (read by a
+ * {@link MembersCsvImporter}) in the database. The import is incremental :
+ * <ul>
+ * <li>a file identical to the last imported one (see {@link ImportManifest})
+ * is skipped outright</li>
+ * <li>otherwise, the license year and import hash of the existing members are
+ * loaded once (in a {@link LicenseIndex}), and each row is classified without
+ * any query</li>
+ * </ul>
+ * Rows are first validated (code, names and license year) : the invalid ones
+ * are rejected in a quarantine file (see {@link QuarantineWriter}), and the
+ * import goes on. The valid rows are classified as :
+ * <ul>
+ * <li>new member : inserted</li>
+ * <li>known member, with the same or a newer license : updated, unless its
+ * values have the same hash as the last import (unchanged)</li>
+ * <li>known member, with an older license : skipped</li>
+ * </ul>
+ * Several sources (the exports of several clubs or seasons) can also be
+ * imported at once : they are parsed concurrently, merged in memory by code
+ * with the same rule (the latest license wins), and the merged members are
+ * compared to the existing ones and written only once.<br />
+ * The inserted and updated rows are written in batches, with one transaction
+ * per batch, and the watchers of the members are notified once, at the end
+ * of the import. Parsing and writing are pipelined : the rows are parsed by a
+ * dedicated thread while the previous batches are written.<br />
+ * The rows are read in {@link MemberRecord} instances, which are recycled
+ * with their batch once written : importing a member allocates its values,
+ * but no ContentValues or wrapper object.
+ */
+public class MembersImportEngine {
+
+    /** Number of rows written to the provider at once */
+    private static final int BATCH_SIZE = 500;
+
+    /** Number of rows parsed between two progress updates of a source parser */
+    private static final int PARSER_BLOCK_SIZE = 500;
+
+    /** Number of batches which may wait for the writer (backpressure) */
+    private static final int QUEUE_CAPACITY = 4;
+
+    /** Delay after which the writer checks that the parser is still alive (ms) */
+    private static final long POLL_TIMEOUT = 500;
+
+    /** Projection used to load the existing members */
+    private static final String[] EXISTING_PROJECTION = {
+            Member.CODE, Member.LAST_LICENSE, Member.IMPORT_HASH
+    };
+
+    /** Extensions removed from the source name to build the quarantine name */
+    private static final String[] SOURCE_EXTENSIONS = {
+            ".gz", ".zip", ".csv"
+    };
+
+    /** Suffix of the quarantine file name (replacing the extensions) */
+    private static final String QUARANTINE_SUFFIX = "_rejected.csv";
+
+    /** Rejection reason : no code */
+    private static final String REASON_MISSING_CODE = "Missing code";
+
+    /** Rejection reason : code with some non-digit chars */
+    private static final String REASON_INVALID_CODE = "Invalid code";
+
+    /** Rejection reason : no last name or no first name */
+    private static final String REASON_MISSING_NAME = "Missing name";
+
+    /** Rejection reason : no license year, or not a number */
+    private static final String REASON_INVALID_LICENSE = "Invalid license";
+
+    /** Minimum delay between two progress notifications (ms) */
+    private static final long PROGRESS_INTERVAL = 250;
+
+    /** Lock held by the running import (the imports of the process are serialized) */
+    private static final ReentrantLock IMPORT_LOCK = new ReentrantLock();
+
+    /** The android context from which the engine is used */
+    private final Context context;
+
+    /** The content resolver used to read the existing members */
+    private final ContentResolver resolver;
+
+    /** Number of members inserted */
+    private int insertedCount;
+
+    /** Number of members updated */
+    private int updatedCount;
+
+    /** Number of members unchanged since the last import */
+    private int unchangedCount;
+
+    /** Number of members skipped (older than the existing ones) */
+    private int skippedCount;
+
+    /** The writer of the rejected rows (null before the import) */
+    private QuarantineWriter quarantine;
+
+    /** The writers of the rejected rows of each source */
+    private final List<QuarantineWriter> quarantines = new ArrayList<QuarantineWriter>();
+
+    /** The error which has interrupted the import (if any) */
+    private Exception error;
+
+    /** The metrics of the current import (null before the import) */
+    private ImportStats stats;
+
+    /** The listener notified of the import progress (may be null) */
+    private ProgressListener progressListener;
+
+    /** Time of the last progress notification (ms) */
+    private long lastProgressTime;
+
+    /** True when the import has been cancelled */
+    private volatile boolean cancelled;
+
+    /** Number of rows before the checkpoint from which the import was resumed */
+    private int resumedRow;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new engine, writing in the members provider.
+     * 
+     * @param context android context from which the engine will be used
+     *            (usually 'this')
+     */
+    public MembersImportEngine(Context context) {
+        this.context = context;
+        this.resolver = context.getContentResolver();
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Import the members of the given CSV file, unless it is identical to the
+     * last imported file. If the previous import of the same file has been
+     * interrupted (cancelled, or the process has been killed), it is resumed
+     * from its last checkpoint.<br />
+     * The imports of the process are serialized : an import started while
+     * another one is running (automatic or manual) waits for its end.<br />
+     * The errors are not thrown : they interrupt the import, and are then
+     * available from {@link #getError()}.
+     * 
+     * @param path of the CSV file
+     * @return false if the file has been skipped (already imported)
+     */
+    public boolean importFile(String path) {
+        return importSource(ImportSource.forFile(new File(path)));
+    }
+
+    /**
+     * Import the members of the given source (a CSV file, maybe compressed),
+     * as {@link #importFile(String)}.
+     * 
+     * @param source of the CSV data
+     * @return false if the source has been skipped (already imported)
+     */
+    public boolean importSource(ImportSource source) {
+        IMPORT_LOCK.lock();
+        try {
+            return importLockedSource(source);
+        } finally {
+            IMPORT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * Import the members of several sources at once. The sources are parsed
+     * concurrently (one thread per source, up to the number of processors),
+     * and their members are merged in memory by code : the row with the
+     * latest license wins (for the same license, the last source wins). The
+     * merged members are then compared to the existing ones, and written
+     * once.<br />
+     * The import can be cancelled, but not resumed : nothing is written until
+     * all the sources have been parsed. The errors are not thrown, they are
+     * available from {@link #getError()} (a source which can't be read is
+     * ignored, the members of the other sources are still imported). It waits
+     * for the end of the running import, as {@link #importFile(String)}.
+     * 
+     * @param sources of the CSV data
+     */
+    public void importSources(ImportSource[] sources) {
+        IMPORT_LOCK.lock();
+        try {
+            importLockedSources(sources);
+        } finally {
+            IMPORT_LOCK.unlock();
+        }
+    }
+
+    /**
+     * @return true if an import is running in the process (a new import would
+     *         wait for its end)
+     */
+    public static boolean isImportRunning() {
+        return IMPORT_LOCK.isLocked();
+    }
+
+    /**
+     * List the sources that can be imported from the given directory : CSV
+     * files and compressed exports (but not the quarantine files).
+     * 
+     * @param directory to list
+     * @return the sources of the directory, sorted by name (empty if none)
+     */
+    public static ImportSource[] listSources(File directory) {
+        File[] files = directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && isSourceName(file.getName());
+            }
+        });
+        if (files == null) {
+            return new ImportSource[0];
+        }
+        Arrays.sort(files);
+        ImportSource[] sources = new ImportSource[files.length];
+        for (int i = 0; i < files.length; i++) {
+            sources[i] = ImportSource.forFile(files[i]);
+        }
+        return sources;
+    }
+
+    /**
+     * @param name of a file
+     * @return true if the file may be imported : a CSV file or a compressed
+     *         export, but not a quarantine file
+     */
+    public static boolean isSourceName(String name) {
+        name = name.toLowerCase();
+        if (name.endsWith(QUARANTINE_SUFFIX)) {
+            return false;
+        }
+        for (String extension : SOURCE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Cancel the import in progress. The import stops at the end of the
+     * current batch, and will be resumed from there by the next import of the
+     * same file. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return true if the import has been cancelled
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the number of rows before the checkpoint from which the import
+     *         has been resumed (0 if it has not been resumed)
+     */
+    public int getResumedRow() {
+        return resumedRow;
+    }
+
+    /**
+     * Set the listener notified of the progress of the import. It is called
+     * from the importing thread.
+     * 
+     * @param progressListener the listener, or null
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * @return the metrics of the last import, or null if no file has been
+     *         imported (or if it was skipped)
+     */
+    public ImportStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the number of members inserted
+     */
+    public int getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     * @return the number of members updated
+     */
+    public int getUpdatedCount() {
+        return updatedCount;
+    }
+
+    /**
+     * @return the number of members unchanged since the last import
+     */
+    public int getUnchangedCount() {
+        return unchangedCount;
+    }
+
+    /**
+     * @return the number of members skipped (older than the existing ones)
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * @return the number of rows rejected (invalid), saved in the quarantine
+     *         file
+     */
+    public int getRejectedCount() {
+        int count = 0;
+        for (QuarantineWriter sourceQuarantine : quarantines) {
+            count += sourceQuarantine.getRejectedCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return the quarantine file of the last import (of the first source with
+     *         some rejected rows, when several sources have been imported), or
+     *         null if no row has been rejected
+     */
+    public File getQuarantineFile() {
+        for (QuarantineWriter sourceQuarantine : quarantines) {
+            if (sourceQuarantine.getRejectedCount() > 0) {
+                return sourceQuarantine.getFile();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the error which has interrupted the last import, or null
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Import the members of the given source, holding the import lock (see
+     * {@link #importSource(ImportSource)}).
+     * 
+     * @param source of the CSV data
+     * @return false if the source has been skipped (already imported)
+     */
+    private boolean importLockedSource(ImportSource source) {
+        ImportManifest manifest = new ImportManifest(context);
+        if (manifest.isImported(source)) {
+            return false;
+        }
+
+        ImportCheckpoint checkpoint = manifest.getCheckpoint(source);
+        MembersCsvImporter importer = new MembersCsvImporter(source, checkpoint);
+        resumedRow = importer.getRecordsRead();
+        quarantine = new QuarantineWriter(getQuarantineFile(source), resumedRow > 0);
+        quarantine.setHeader(importer.getHeader());
+        quarantines.add(quarantine);
+        MembersProvider.beginQuiet(context, Member.CONTENT_URI);
+        try {
+            run(importer, manifest, source);
+        } catch (RuntimeException e) {
+            // the checkpoint of the last written batch is kept
+            error = e;
+        } finally {
+            importer.close();
+            quarantine.close();
+            MembersProvider.endQuiet(context, Member.CONTENT_URI);
+        }
+        if (error == null) {
+            error = importer.getError();
+        }
+        if (!cancelled && error == null && !importer.hasFailed()) {
+            manifest.clearCheckpoint();
+            manifest.recordImport(source);
+        }
+        return true;
+    }
+
+    /**
+     * Import the members of several sources at once, holding the import lock
+     * (see {@link #importSources(ImportSource[])}).
+     * 
+     * @param sources of the CSV data
+     */
+    private void importLockedSources(ImportSource[] sources) {
+        // the imported members won't match the manifest of a single file
+        ImportManifest manifest = new ImportManifest(context);
+        manifest.clear();
+
+        long totalLength = 0;
+        for (ImportSource source : sources) {
+            long length = source.getLength();
+            totalLength = length < 0 || totalLength < 0 ? -1 : totalLength + length;
+        }
+        stats = new ImportStats(totalLength, 0);
+
+        int threads = Math.min(sources.length, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(threads, 1));
+        MembersProvider.beginQuiet(context, Member.CONTENT_URI);
+        try {
+            List<Future<Map<String, MemberRecord>>> results =
+                    new ArrayList<Future<Map<String, MemberRecord>>>();
+            for (ImportSource source : sources) {
+                QuarantineWriter sourceQuarantine = new QuarantineWriter(
+                        getQuarantineFile(source), false);
+                quarantines.add(sourceQuarantine);
+                results.add(executor.submit(new SourceParser(source, sourceQuarantine)));
+            }
+
+            // the existing members are loaded while the sources are parsed
+            LicenseIndex licenses = loadLicenses();
+            Map<String, MemberRecord> merged = merge(results);
+            if (!cancelled) {
+                writeMerged(merged, licenses);
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        } finally {
+            executor.shutdownNow();
+            MembersProvider.endQuiet(context, Member.CONTENT_URI);
+        }
+
+        finish();
+    }
+
+    /**
+     * Import all the members read by the given importer. Only the new members
+     * and the ones with the same or a newer license year than the existing
+     * entry are written, and only if their values have changed since the last
+     * import.<br />
+     * The import is a two-stage pipeline : a {@link ParserThread} reads and
+     * classifies the rows, and queues them in batches of BATCH_SIZE rows. The
+     * calling thread writes the batches (one transaction each), records their
+     * checkpoint in the manifest, and gives them back to the parser. There is
+     * a fixed pool of batches, so the parser waits for the writer when it is
+     * too far ahead.
+     * 
+     * @param importer from which the members are read
+     * @param manifest in which the checkpoints are recorded
+     * @param source being imported
+     */
+    private void run(MembersCsvImporter importer, ImportManifest manifest, ImportSource source) {
+        stats = new ImportStats(importer.getFileSize(), importer.getStartOffset());
+        BlockingQueue<Batch> queue = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY);
+        BlockingQueue<Batch> freeBatches = new ArrayBlockingQueue<Batch>(QUEUE_CAPACITY + 2);
+        for (int i = 0; i < QUEUE_CAPACITY + 2; i++) {
+            freeBatches.add(new Batch());
+        }
+        ParserThread parser = new ParserThread(importer, queue, freeBatches);
+        parser.start();
+        try {
+            while (true) {
+                Batch batch = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    if (!parser.isAlive() && queue.isEmpty()) {
+                        // the parser has died (see its error below)
+                        break;
+                    }
+                    continue;
+                }
+                write(batch);
+                if (batch.checkpoint != null) {
+                    manifest.saveCheckpoint(source, batch.checkpoint);
+                }
+                if (batch.last) {
+                    break;
+                }
+                batch.clear();
+                freeBatches.add(batch);
+            }
+        } catch (InterruptedException e) {
+            cancelled = true;
+        } finally {
+            // stop the parser if the writer has failed
+            parser.interrupt();
+            try {
+                parser.join();
+            } catch (InterruptedException e) {
+                cancelled = true;
+            }
+        }
+        if (parser.error != null) {
+            throw parser.error;
+        }
+
+        stats.setBytesRead(importer.getBytesRead());
+        finish();
+    }
+
+    /**
+     * Validate and classify the given member (reject, insert, update,
+     * unchanged or skip), and compute its import hash.
+     * 
+     * @param record read from the CSV file
+     * @param licenses the index of the existing members (updated)
+     * @return true if the member has to be written
+     */
+    private boolean classify(MemberRecord record, LicenseIndex licenses) {
+        int license = LicenseIndex.parseLicense(record.getLastLicense());
+        String reason = validate(record, license);
+        if (reason != null) {
+            quarantine.reject(record, reason);
+            stats.addSkipped();
+            return false;
+        }
+        return compare(record, license, licenses);
+    }
+
+    /**
+     * Compare the given (valid) member to the existing one, if any : classify
+     * it as insert, update, unchanged or skip, and compute its import hash.
+     * 
+     * @param record read from the CSV file, and validated
+     * @param license the parsed license year of the record
+     * @param licenses the index of the existing members (updated)
+     * @return true if the member has to be written
+     */
+    private boolean compare(MemberRecord record, int license, LicenseIndex licenses) {
+        String code = record.getCode();
+        long hash = record.computeHash();
+        int existingLicense = licenses.get(code);
+        if (existingLicense == LicenseIndex.MISSING) {
+            insertedCount++;
+        } else if (!supersedes(license, existingLicense)) {
+            skippedCount++;
+            stats.addSkipped();
+            return false;
+        } else if (hash == licenses.getHash(code)) {
+            unchangedCount++;
+            stats.addSkipped();
+            return false;
+        } else {
+            updatedCount++;
+        }
+
+        // later rows for the same member are compared to this one
+        licenses.put(code, license, hash);
+        return true;
+    }
+
+    /**
+     * Merge the members parsed from several sources, in the order of the
+     * sources : a member replaces the one with the same code if it
+     * {@link #supersedes(int, int)} it.
+     * 
+     * @param results of the source parsers
+     * @return the merged members, by code
+     */
+    private Map<String, MemberRecord> merge(List<Future<Map<String, MemberRecord>>> results) {
+        Map<String, MemberRecord> merged = new LinkedHashMap<String, MemberRecord>();
+        for (Future<Map<String, MemberRecord>> result : results) {
+            Map<String, MemberRecord> records;
+            try {
+                records = result.get();
+            } catch (InterruptedException e) {
+                cancelled = true;
+                break;
+            } catch (ExecutionException e) {
+                if (error == null && e.getCause() instanceof Exception) {
+                    error = (Exception)e.getCause();
+                }
+                continue;
+            }
+            if (merged.isEmpty()) {
+                merged.putAll(records);
+                continue;
+            }
+            for (MemberRecord record : records.values()) {
+                MemberRecord previous = merged.get(record.getCode());
+                if (previous == null
+                        || supersedes(LicenseIndex.parseLicense(record.getLastLicense()),
+                                LicenseIndex.parseLicense(previous.getLastLicense()))) {
+                    merged.put(record.getCode(), record);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Compare the merged members to the existing ones, and write the new and
+     * updated ones in batches.
+     * 
+     * @param merged members, by code
+     * @param licenses the index of the existing members
+     */
+    private void writeMerged(Map<String, MemberRecord> merged, LicenseIndex licenses) {
+        MemberRecord[] rows = new MemberRecord[BATCH_SIZE];
+        int count = 0;
+        for (MemberRecord record : merged.values()) {
+            if (cancelled) {
+                return;
+            }
+            if (compare(record, LicenseIndex.parseLicense(record.getLastLicense()), licenses)) {
+                rows[count++] = record;
+                if (count == BATCH_SIZE) {
+                    writeRecords(rows, count);
+                    count = 0;
+                }
+            }
+        }
+        writeRecords(rows, count);
+    }
+
+    /**
+     * Add the counts of a block of rows parsed by a source parser to the
+     * metrics (may be called by several parsers at the same time).
+     * 
+     * @param rows number of rows parsed
+     * @param rejected number of rows rejected
+     * @param bytes number of bytes read
+     * @param time spent parsing the rows (ns)
+     */
+    private void addParsedBlock(int rows, int rejected, long bytes, long time) {
+        synchronized (stats) {
+            stats.addParsedBlock(rows, rejected, bytes, time);
+            notifyProgress();
+        }
+    }
+
+    /**
+     * The merge rule of the members : a row replaces the existing member (or
+     * a previous row of the same member) if its license is the same or newer.
+     * 
+     * @param license year of the row
+     * @param existingLicense year of the existing member
+     * @return true if the row replaces the existing member
+     */
+    private static boolean supersedes(int license, int existingLicense) {
+        return license >= existingLicense;
+    }
+
+    /**
+     * Check that the given member can be written : a code made of digits, a
+     * last name and a first name, and a license year.
+     * 
+     * @param record read from the CSV file
+     * @param license the parsed license year of the record
+     * @return the reason why the record is rejected, or null if it is valid
+     */
+    private static String validate(MemberRecord record, int license) {
+        String code = record.getCode();
+        if (code == null || code.length() == 0) {
+            return REASON_MISSING_CODE;
+        }
+        for (int i = 0; i < code.length(); i++) {
+            char c = code.charAt(i);
+            if (c < '0' || c > '9') {
+                return REASON_INVALID_CODE;
+            }
+        }
+        if (isEmpty(record.get(MemberRecord.LAST_NAME_SLOT))
+                || isEmpty(record.get(MemberRecord.FIRST_NAME_SLOT))) {
+            return REASON_MISSING_NAME;
+        }
+        if (license <= 0) {
+            return REASON_INVALID_LICENSE;
+        }
+        return null;
+    }
+
+    /**
+     * @param value to check (may be null)
+     * @return true if the value is null or empty
+     */
+    private static boolean isEmpty(String value) {
+        return value == null || value.length() == 0;
+    }
+
+    /**
+     * @param source being imported
+     * @return the quarantine file of the given source : in the same directory
+     *         for a file, or at the root of the external storage
+     */
+    private static File getQuarantineFile(ImportSource source) {
+        String name = source.getName();
+        for (String extension : SOURCE_EXTENSIONS) {
+            if (name.toLowerCase().endsWith(extension)) {
+                name = name.substring(0, name.length() - extension.length());
+            }
+        }
+        File directory = source.getFile() != null ? source.getFile().getParentFile()
+                : Environment.getExternalStorageDirectory();
+        return new File(directory, name + QUARANTINE_SUFFIX);
+    }
+
+    /**
+     * Load the license year and import hash of all the existing members, with
+     * a single query.
+     * 
+     * @return the index of the existing members
+     */
+    private LicenseIndex loadLicenses() {
+        Cursor cursor = resolver.query(Member.CONTENT_URI, EXISTING_PROJECTION, null, null,
+                Member.ID + " ASC");
+        if (cursor == null) {
+            return new LicenseIndex(0);
+        }
+        try {
+            LicenseIndex licenses = new LicenseIndex(cursor.getCount());
+            int codeIndex = cursor.getColumnIndexOrThrow(Member.CODE);
+            int licenseIndex = cursor.getColumnIndexOrThrow(Member.LAST_LICENSE);
+            int hashIndex = cursor.getColumnIndexOrThrow(Member.IMPORT_HASH);
+            while (cursor.moveToNext()) {
+                long hash = cursor.isNull(hashIndex) ? 0 : cursor.getLong(hashIndex);
+                licenses.put(cursor.getString(codeIndex), LicenseIndex.parseLicense(cursor
+                        .getString(licenseIndex)), hash);
+            }
+            return licenses;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Write the records of the given batch, in a single transaction
+     * 
+     * @param batch to write
+     */
+    private void write(Batch batch) {
+        writeRecords(batch.records, batch.size);
+    }
+
+    /**
+     * Write the given records, in a single transaction
+     * 
+     * @param records to write
+     * @param count number of records to write (from the start of the array)
+     */
+    private void writeRecords(MemberRecord[] records, int count) {
+        if (count == 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        MembersProvider.upsertRecords(context, records, count);
+        stats.addWritten(count, System.nanoTime() - start);
+    }
+
+    /**
+     * End the import : checkpoint the database log (if some rows have been
+     * written), then notify the progress listener. The watchers of the
+     * members are notified once, when the quiet mode of the import ends.
+     */
+    private void finish() {
+        stats.finish();
+        if (stats.getRowsWritten() > 0) {
+            MembersProvider.checkpoint(context);
+        }
+        if (progressListener != null) {
+            progressListener.onFinished(stats);
+        }
+    }
+
+    /**
+     * Notify the progress listener (at most every PROGRESS_INTERVAL ms)
+     */
+    private void notifyProgress() {
+        if (progressListener == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now - lastProgressTime >= PROGRESS_INTERVAL) {
+            lastProgressTime = now;
+            progressListener.onProgress(stats);
+        }
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * A batch of rows to write, queued by the parser for the writer, and then
+     * given back to the parser to be filled again.
+     */
+    private static class Batch {
+
+        /** The records of the batch, recycled from one use to the next */
+        final MemberRecord[] records = new MemberRecord[BATCH_SIZE];
+
+        /** Number of records to write */
+        int size;
+
+        /** The position of the importer after the rows (may be null) */
+        ImportCheckpoint checkpoint;
+
+        /** True for the last batch of the import */
+        boolean last;
+
+        Batch() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                records[i] = new MemberRecord();
+            }
+        }
+
+        /**
+         * Empty the batch, so that it can be filled again
+         */
+        void clear() {
+            size = 0;
+            checkpoint = null;
+            last = false;
+        }
+    }
+
+    /**
+     * The parsing stage of the import : reads the members from the importer,
+     * classifies them, and queues the rows to write in batches.
+     */
+    private class ParserThread extends Thread {
+
+        /** The importer from which the members are read */
+        private final MembersCsvImporter importer;
+
+        /** The queue of the batches to write */
+        private final BlockingQueue<Batch> queue;
+
+        /** The batches given back by the writer */
+        private final BlockingQueue<Batch> freeBatches;
+
+        /** The error which has stopped the parsing (if any) */
+        private volatile RuntimeException error;
+
+        ParserThread(MembersCsvImporter importer, BlockingQueue<Batch> queue,
+                BlockingQueue<Batch> freeBatches) {
+            super("CsvParser");
+            this.importer = importer;
+            this.queue = queue;
+            this.freeBatches = freeBatches;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long time = System.nanoTime();
+                LicenseIndex licenses = loadLicenses();
+                stats.addParseTime(System.nanoTime() - time);
+                Batch batch = freeBatches.take();
+                int rowsInBatch = 0;
+                while (!cancelled) {
+                    time = System.nanoTime();
+                    MemberRecord record = batch.records[batch.size];
+                    if (!importer.nextRecord(record)) {
+                        stats.addParseTime(System.nanoTime() - time);
+                        break;
+                    }
+                    stats.addParsed(System.nanoTime() - time);
+                    stats.setBytesRead(importer.getBytesRead());
+                    notifyProgress();
+
+                    if (classify(record, licenses)) {
+                        batch.size++;
+                    }
+                    if (++rowsInBatch >= BATCH_SIZE) {
+                        batch.checkpoint = importer.getCheckpoint();
+                        queue.put(batch);
+                        batch = freeBatches.take();
+                        rowsInBatch = 0;
+                    }
+                }
+                batch.checkpoint = importer.getCheckpoint();
+                batch.last = true;
+                queue.put(batch);
+            } catch (InterruptedException e) {
+                // the writer has stopped
+            } catch (RuntimeException e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * Parser of one of the sources of a multi-source import : reads and
+     * validates its members, and keeps the latest row of each member. The
+     * records are recycled, only the kept members are allocated.
+     */
+    private class SourceParser implements Callable<Map<String, MemberRecord>> {
+
+        /** The source to parse */
+        private final ImportSource source;
+
+        /** The writer of the rejected rows of the source */
+        private final QuarantineWriter sourceQuarantine;
+
+        SourceParser(ImportSource source, QuarantineWriter sourceQuarantine) {
+            this.source = source;
+            this.sourceQuarantine = sourceQuarantine;
+        }
+
+        @Override
+        public Map<String, MemberRecord> call() throws IOException {
+            Map<String, MemberRecord> records = new HashMap<String, MemberRecord>();
+            MembersCsvImporter importer = new MembersCsvImporter(source, 1, null);
+            sourceQuarantine.setHeader(importer.getHeader());
+            try {
+                MemberRecord record = new MemberRecord();
+                int rows = 0;
+                int rejected = 0;
+                long bytes = 0;
+                long time = System.nanoTime();
+                while (!cancelled && importer.nextRecord(record)) {
+                    rows++;
+                    int license = LicenseIndex.parseLicense(record.getLastLicense());
+                    String reason = validate(record, license);
+                    if (reason != null) {
+                        sourceQuarantine.reject(record, reason);
+                        rejected++;
+                    } else {
+                        MemberRecord previous = records.get(record.getCode());
+                        if (previous == null
+                                || supersedes(license, LicenseIndex.parseLicense(previous
+                                        .getLastLicense()))) {
+                            records.put(record.getCode(), record);
+                            record = previous != null ? previous : new MemberRecord();
+                        }
+                    }
+
+                    if (rows == PARSER_BLOCK_SIZE) {
+                        long now = System.nanoTime();
+                        long bytesRead = importer.getBytesRead();
+                        addParsedBlock(rows, rejected, bytesRead - bytes, now - time);
+                        rows = 0;
+                        rejected = 0;
+                        bytes = bytesRead;
+                        time = now;
+                    }
+                }
+                addParsedBlock(rows, rejected, importer.getBytesRead() - bytes, System
+                        .nanoTime()
+                        - time);
+            } finally {
+                importer.close();
+                sourceQuarantine.close();
+            }
+            if (importer.getError() != null) {
+                throw importer.getError();
+            }
+            return records;
+        }
+    }
+
+    /**
+     * Listener notified of the progress of an import, from the importing
+     * thread.
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called regularly while the file is imported.
+         * 
+         * @param stats the current metrics of the import
+         */
+        void onProgress(ImportStats stats);
+
+        /**
+         * Called once the file has been imported.
+         * 
+         * @param stats the final metrics of the import
+         */
+        void onFinished(ImportStats stats);
+    }
+
+}
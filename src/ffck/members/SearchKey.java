@@ -0,0 +1,124 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+/**
+ * Search keys of the names : lower-cased, without accents
+ * ("&Eacute;lodie" gives "elodie"). The keys are stored with the members (see
+ * {@link Member#LAST_NAME_KEY} and {@link Member#FIRST_NAME_KEY}) and indexed,
+ * so that a case and accent insensitive prefix search is a simple range scan
+ * on the index : key &gt;= prefix AND key &lt; {@link #upperBound(String)}.
+ * The addresses, cities and emails also have keys, for the full-text search
+ * (see {@link Member#SEARCH_URI}).<br />
+ * The accents are removed with a static table covering the Latin-1 and
+ * Latin Extended-A letters (java.text.Normalizer is not available).
+ */
+public final class SearchKey {
+
+    /** The first char of the folding table */
+    private static final char FOLD_START = '\u00C0';
+
+    /**
+     * The folded char of each char from FOLD_START : the base letter,
+     * lower-cased, or '*' for the chars which are not folded by the table
+     * (ligatures, symbols)
+     */
+    private static final String FOLD_TABLE = ""
+            // U+00C0 - U+00FF (Latin-1)
+            + "aaaaaa*ceeeeiiiidnooooo*ouuuuy**"
+            + "aaaaaa*ceeeeiiiidnooooo*ouuuuy*y"
+            // U+0100 - U+017F (Latin Extended-A)
+            + "aaaaaaccccccccddddeeeeeeeeeegggg"
+            + "gggghhhhiiiiiiiiii**jjkkklllllll"
+            + "lllnnnnnnnnnoooooo**rrrrrrssssss"
+            + "ssttttttuuuuuuuuuuuuwwyyyzzzzzzs";
+
+    /**
+     * Private constructor : static methods only
+     */
+    private SearchKey() {
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @param value to fold (a name, or a searched prefix)
+     * @return the search key of the value : lower-cased, without accents (null
+     *         if the value is null)
+     */
+    public static String fold(String value) {
+        if (value == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                key.append(c >= 'A' && c <= 'Z' ? (char)(c + ('a' - 'A')) : c);
+                continue;
+            }
+            if (c >= FOLD_START && c - FOLD_START < FOLD_TABLE.length()) {
+                char folded = FOLD_TABLE.charAt(c - FOLD_START);
+                if (folded != '*') {
+                    key.append(folded);
+                    continue;
+                }
+            }
+            switch (c) {
+                case '\u00C6': // AE
+                case '\u00E6': // ae
+                    key.append("ae");
+                    break;
+                case '\u00DF': // sharp s
+                    key.append("ss");
+                    break;
+                case '\u0132': // IJ
+                case '\u0133': // ij
+                    key.append("ij");
+                    break;
+                case '\u0152': // OE
+                case '\u0153': // oe
+                    key.append("oe");
+                    break;
+                default:
+                    key.append(Character.toLowerCase(c));
+                    break;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @param prefix a search key
+     * @return the smallest key greater than all the keys starting with the
+     *         given prefix (the prefix with its last char incremented), or
+     *         null if there is none (empty prefix)
+     */
+    public static String upperBound(String prefix) {
+        int last = prefix.length() - 1;
+        while (last >= 0 && prefix.charAt(last) == Character.MAX_VALUE) {
+            last--;
+        }
+        if (last < 0) {
+            return null;
+        }
+        return prefix.substring(0, last) + (char)(prefix.charAt(last) + 1);
+    }
+
+}
@@ -0,0 +1,60 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Sort keys of the names, in the French order : the collation keys of a
+ * French {@link Collator}, stored as BLOBs with the members (see
+ * {@link Member#LAST_NAME_SORT} and {@link Member#FIRST_NAME_SORT}). SQLite
+ * compares the BLOBs byte per byte, which gives the order of the collator
+ * ("&Eacute;milie" before "Zo&eacute;") with the plain binary comparison of an
+ * index : no collation has to be run at query time.<br />
+ * The collator is always French (not the locale of the device), so that the
+ * keys don't depend on the device settings.
+ */
+public final class SortKey {
+
+    /** The collator of the keys (not thread-safe : synchronized on the class) */
+    private static final Collator COLLATOR = Collator.getInstance(Locale.FRENCH);
+
+    /**
+     * Private constructor : static methods only
+     */
+    private SortKey() {
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @param name to sort
+     * @return the sort key of the name (null if the name is null)
+     */
+    public static synchronized byte[] of(String name) {
+        if (name == null) {
+            return null;
+        }
+        CollationKey key = COLLATOR.getCollationKey(name);
+        return key.toByteArray();
+    }
+
+}
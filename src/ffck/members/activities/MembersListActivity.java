@@ -16,9 +16,14 @@
 
 package ffck.members.activities;
 
+import ffck.members.ImportStats;
 import ffck.members.Member;
-import ffck.members.MembersCsvImporter;
+import ffck.members.MembersImportEngine;
+import ffck.members.MembersImportEngine.ProgressListener;
 import ffck.members.R;
+import ffck.members.SearchKey;
+import ffck.members.importer.ImportSource;
+import ffck.members.services.AutoImportService;
 
 import org.openintents.intents.FileManagerIntents;
 
@@ -27,11 +32,14 @@ import android.app.Dialog;
 import android.app.ListActivity;
 import android.app.ProgressDialog;
 import android.content.ActivityNotFoundException;
+import android.content.AsyncQueryHandler;
+import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.DialogInterface.OnClickListener;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.database.AbstractCursor;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -43,14 +51,18 @@ import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.FilterQueryProvider;
 import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.SimpleCursorAdapter;
 import android.widget.TextView;
 import android.widget.Toast;
+import android.widget.AbsListView.OnScrollListener;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * FFCK Members list activity. Display a list of all members, and supports
@@ -61,6 +73,9 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     /** The requestCode for the PICK_FILE intent activity result */
     private static final int REQUEST_CODE_PICK_FILE = 1;
 
+    /** The requestCode for the PICK_DIRECTORY intent activity result */
+    private static final int REQUEST_CODE_PICK_DIRECTORY = 2;
+
     /** Default path for selecting the CSV file to import (the SD card) */
     private static final File IMPORT_CSV_DEFAULT_PATH = new File("/sdcard");
 
@@ -83,6 +98,16 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     /** Identifier for the 'Progress bar while importing' dialog */
     private static final int DIALOG_PROGRESS_IMPORT = 5;
 
+    /*
+     * Pagination
+     */
+
+    /** Number of members loaded per page */
+    private static final int PAGE_SIZE = 100;
+
+    /** Number of rows left below the visible ones when the next page is loaded */
+    private static final int PAGE_PREFETCH = 20;
+
     /*
      * DB->View mapping
      */
@@ -93,6 +118,11 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
             Member.LAST_LICENSE
     };
 
+    /** Projection used to count the members */
+    private static final String[] COUNT_PROJECTION = {
+        "count(*)"
+    };
+
     /** Source for the DB->View mapping : Columns names */
     private static final String[] FROM = {
             Member.GENDER, Member.LAST_NAME, Member.LAST_LICENSE
@@ -117,6 +147,15 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     /** The handler used to inform the UI thread about background jobs status */
     private Handler handler = new Handler();
 
+    /** The handler querying the members in the background (pages, count) */
+    private AsyncQueryHandler queryHandler;
+
+    /** The 'Progress bar while importing' dialog (null until first displayed) */
+    private ProgressDialog progressDialog;
+
+    /** The engine of the import in progress (null if none) */
+    private MembersImportEngine importEngine;
+
     /*
      * Activity lifecycle
      */
@@ -136,6 +175,10 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
         // we need custom DB->View binding (see MembersViewBinder javadoc)
         cursorAdapter.setViewBinder(new MembersViewBinder());
 
+        // load the next pages while scrolling (see MembersPagesCursor javadoc)
+        queryHandler = new MembersQueryHandler(getContentResolver());
+        getListView().setOnScrollListener(new MembersScrollListener());
+
         // enable filtering (see MembersFilterQueryProvider javadoc)
         getListView().setTextFilterEnabled(true);
         cursorAdapter.setFilterQueryProvider(new MembersFilterQueryProvider());
@@ -143,6 +186,9 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
         // listen to preferences changes
         PreferenceManager.getDefaultSharedPreferences(this)
                 .registerOnSharedPreferenceChangeListener(this);
+
+        // watch the exports directory (if enabled)
+        AutoImportService.update(this);
     }
 
     @Override
@@ -152,9 +198,13 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
         // when a 'child' activity finished :
         switch (requestCode) {
             case REQUEST_CODE_PICK_FILE:
-                if (resultCode == RESULT_OK && data != null) {
-                    String selectedPath = data.getData().getPath();
-                    importFile(selectedPath);
+                if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                    importFile(data.getData());
+                }
+                break;
+            case REQUEST_CODE_PICK_DIRECTORY:
+                if (resultCode == RESULT_OK && data != null && data.getData() != null) {
+                    importDirectory(data.getData());
                 }
                 break;
             default:
@@ -211,6 +261,9 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
             case R.id.members_list_menu_import:
                 selectFileToImport();
                 return true;
+            case R.id.members_list_menu_import_directory:
+                selectDirectoryToImport();
+                return true;
             default:
                 return false;
         }
@@ -266,8 +319,27 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
                 ProgressDialog progressImport = new ProgressDialog(this);
                 progressImport.setTitle(R.string.import_csv_progress_bar_title);
                 progressImport.setMessage(getString(R.string.import_csv_progress_bar_text));
-                progressImport.setIndeterminate(true);
-                progressImport.setCancelable(false);
+                progressImport.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+                progressImport.setIndeterminate(false);
+                progressImport.setMax(100);
+                progressImport.setCancelable(true);
+                progressImport.setButton(getString(R.string.import_csv_progress_bar_cancel),
+                        new OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                dialog.cancel();
+                            }
+                        });
+                progressImport.setOnCancelListener(new DialogInterface.OnCancelListener() {
+                    @Override
+                    public void onCancel(DialogInterface dialog) {
+                        // the import stops at the end of the current batch
+                        if (importEngine != null) {
+                            importEngine.cancel();
+                        }
+                    }
+                });
+                progressDialog = progressImport;
                 return progressImport;
             default:
                 return null;
@@ -280,8 +352,17 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
 
         switch (id) {
             case DIALOG_STATS:
-                ((AlertDialog)dialog).setMessage(getString(R.string.dialog_stats_text,
-                        cursorAdapter.getCount()));
+                // the list only holds the pages loaded so far : count them all
+                ((AlertDialog)dialog).setMessage(getString(R.string.dialog_stats_counting));
+                Cursor cursor = cursorAdapter.getCursor();
+                if (cursor instanceof MembersPagesCursor) {
+                    ((MembersPagesCursor)cursor).countMembers(queryHandler, dialog);
+                }
+                break;
+            case DIALOG_PROGRESS_IMPORT:
+                ProgressDialog progressImport = (ProgressDialog)dialog;
+                progressImport.setProgress(0);
+                progressImport.setMessage(getString(R.string.import_csv_progress_bar_text));
                 break;
             default:
                 break;
@@ -302,6 +383,12 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
             startManagingCursor(newCursor);
             cursorAdapter.changeCursor(newCursor);
         }
+
+        // automatic import enabled/disabled, or directory changed
+        if (key.equals(getString(R.string.preferences_auto_import_key))
+                || key.equals(getString(R.string.preferences_auto_import_directory_key))) {
+            AutoImportService.update(this);
+        }
     }
 
     /*
@@ -327,45 +414,122 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     }
 
     /**
-     * Import members from a CSV file. Called after the PICK_FILE activity has
-     * finished, and executed in a background thread.
+     * Starts a new activity for selecting the directory to import (all its CSV
+     * files). We use the OpenIntents PICK_DIRECTORY intent to find a matching
+     * activity.
+     */
+    private void selectDirectoryToImport() {
+        Intent intent = new Intent(FileManagerIntents.ACTION_PICK_DIRECTORY);
+        intent.setData(Uri.fromFile(IMPORT_CSV_DEFAULT_PATH));
+        intent.putExtra(FileManagerIntents.EXTRA_TITLE,
+                getString(R.string.import_csv_pick_directory_title));
+        intent.putExtra(FileManagerIntents.EXTRA_BUTTON_TEXT,
+                getString(R.string.import_csv_pick_file_button));
+        try {
+            startActivityForResult(intent, REQUEST_CODE_PICK_DIRECTORY);
+        } catch (ActivityNotFoundException e) {
+            showDialog(DIALOG_PICK_FILE_ACTIVITY_NOT_FOUND);
+        }
+    }
+
+    /**
+     * Import members from a CSV file (maybe compressed). Called after the
+     * PICK_FILE activity has finished. The import can be cancelled from the
+     * progress dialog, and will then be resumed by the next import of the
+     * same file.
      * 
-     * @param path of the CSV file to be imported
+     * @param uri of the CSV file to be imported (a file, or any content URI)
      */
-    private void importFile(final String path) {
+    private void importFile(Uri uri) {
+        importSources(new ImportSource[] {
+            ImportSource.forUri(getContentResolver(), uri)
+        });
+    }
+
+    /**
+     * Import members from all the CSV files of a directory (one per club or
+     * per season, for example), merged by code. Called after the
+     * PICK_DIRECTORY activity has finished.
+     * 
+     * @param uri of the directory to be imported
+     */
+    private void importDirectory(Uri uri) {
+        ImportSource[] sources = MembersImportEngine.listSources(new File(uri.getPath()));
+        if (sources.length == 0) {
+            Toast.makeText(this, R.string.toast_import_csv_no_source, Toast.LENGTH_LONG).show();
+            return;
+        }
+        importSources(sources);
+    }
+
+    /**
+     * Import members from the given sources, in a background thread : a
+     * single source is imported on its own (and can be resumed), several
+     * sources are merged.
+     * 
+     * @param sources of the CSV data
+     */
+    private void importSources(final ImportSource[] sources) {
+        final boolean merged = sources.length > 1;
+        final MembersImportEngine engine = new MembersImportEngine(this);
+        engine.setProgressListener(new ImportProgressListener());
+        importEngine = engine;
+        showDialog(DIALOG_PROGRESS_IMPORT);
         (new Thread("CsvImporter") {
             @Override
             public void run() {
-                handler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        showDialog(DIALOG_PROGRESS_IMPORT);
-                    }
-                });
-                MembersCsvImporter importer = new MembersCsvImporter(MembersListActivity.this, path);
-                Member member = null;
-                while ((member = importer.nextMember()) != null) {
-                    // only import if new or newer than the existing entry
-                    // (based on lastLicense)
-                    Cursor cursor = getContentResolver().query(member.getUri(), new String[] {
-                            Member.ID, Member.LAST_LICENSE
-                    }, null, null, null);
-                    if (cursor != null && cursor.moveToFirst()) {
-                        int lastLicenseDB = cursor.getInt(cursor
-                                .getColumnIndex(Member.LAST_LICENSE));
-                        cursor.close();
-                        if (Integer.parseInt(member.getLastLicense()) >= lastLicenseDB) {
-                            getContentResolver().update(member.getUri(), member.getValues(), null,
-                                    null);
-                        }
-                    } else {
-                        getContentResolver().insert(member.getUri(), member.getValues());
-                    }
+                boolean importedSources = true;
+                if (merged) {
+                    engine.importSources(sources);
+                } else {
+                    importedSources = engine.importSource(sources[0]);
                 }
+                final boolean imported = importedSources;
                 handler.post(new Runnable() {
                     @Override
                     public void run() {
+                        importEngine = null;
                         dismissDialog(DIALOG_PROGRESS_IMPORT);
+                        if (!imported) {
+                            Toast.makeText(MembersListActivity.this,
+                                    R.string.toast_import_csv_already_imported,
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        if (engine.getError() != null) {
+                            Toast.makeText(MembersListActivity.this,
+                                    getString(merged ? R.string.toast_import_csv_sources_error
+                                            : R.string.toast_import_csv_error, engine.getError()
+                                            .getMessage()), Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        if (engine.isCancelled()) {
+                            Toast.makeText(MembersListActivity.this,
+                                    merged ? R.string.toast_import_csv_sources_cancelled
+                                            : R.string.toast_import_csv_cancelled,
+                                    Toast.LENGTH_LONG).show();
+                            return;
+                        }
+                        if (engine.getResumedRow() > 0) {
+                            Toast.makeText(MembersListActivity.this,
+                                    getString(R.string.toast_import_csv_resumed,
+                                            engine.getResumedRow()), Toast.LENGTH_SHORT).show();
+                        }
+                        ImportStats stats = engine.getStats();
+                        Toast.makeText(MembersListActivity.this,
+                                getString(R.string.toast_import_csv_result,
+                                        engine.getInsertedCount(), engine.getUpdatedCount(),
+                                        engine.getUnchangedCount(), engine.getSkippedCount(),
+                                        stats.getParseTime() / 1000f,
+                                        stats.getWriteTime() / 1000f), Toast.LENGTH_LONG)
+                                .show();
+                        if (engine.getRejectedCount() > 0) {
+                            Toast.makeText(MembersListActivity.this,
+                                    getString(R.string.toast_import_csv_rejected,
+                                            engine.getRejectedCount(),
+                                            engine.getQuarantineFile().getName()),
+                                    Toast.LENGTH_LONG).show();
+                        }
                     }
                 });
             }
@@ -380,7 +544,8 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
      * Build the cursor used by this list activity.<br />
      * The cursor will have the proper filtering and ordering configured based
      * on the preferences (plus your own if you provide a
-     * selection/selectionArgs WHERE clause).
+     * selection/selectionArgs WHERE clause). Only the first page of members
+     * is loaded, the next ones are loaded while scrolling.
      * 
      * @param selection parameters (WHERE clause)
      * @param selectionArgs arguments for the WHERE clause, as an array of
@@ -393,7 +558,9 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
             if (selection == null) {
                 selection = Member.LAST_LICENSE + "=?";
             } else {
-                selection = selection + " AND " + Member.LAST_LICENSE + "=?";
+                // unary '+' : the selection has to use its own indexes (the
+                // range of a search), not the (larger) range of the license
+                selection = selection + " AND +" + Member.LAST_LICENSE + "=?";
             }
             if (selectionArgs == null) {
                 selectionArgs = new String[] {
@@ -408,8 +575,12 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
                 selectionArgs = newArgs;
             }
         }
-        return getContentResolver().query(Member.CONTENT_URI, PROJECTION, selection, selectionArgs,
-                calculateOrderBy());
+        String orderBy = calculateOrderBy();
+        Cursor firstPage = getContentResolver().query(MembersPagesCursor.pageUri(null),
+                PROJECTION, selection, selectionArgs, orderBy);
+        Cursor cursor = new MembersPagesCursor(firstPage, selection, selectionArgs, orderBy);
+        cursor.setNotificationUri(getContentResolver(), Member.CONTENT_URI);
+        return cursor;
     }
 
     /**
@@ -435,9 +606,9 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     private String calculateOrderBy() {
         String namesFormat = getNamesFormatPreference();
         if (getString(R.string.names_format_first_last).equals(namesFormat)) {
-            return Member.FIRST_NAME + " ASC";
+            return Member.ORDER_BY_FIRST_NAME;
         } else if (getString(R.string.names_format_last_first).equals(namesFormat)) {
-            return Member.LAST_NAME + " ASC";
+            return Member.ORDER_BY_LAST_NAME;
         }
         return Member.DEFAULT_ORDER_BY;
     }
@@ -459,7 +630,8 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
     /**
      * FilterQueryProvider implementation for the FFCK Members. Allows to filter
      * the members based on a constraint. The constraint is applied to the first
-     * name or last name (of the members).
+     * name or last name (of the members), as a case and accent insensitive
+     * prefix : a range scan on the indexed search keys of the names.
      */
     private class MembersFilterQueryProvider implements FilterQueryProvider {
 
@@ -472,22 +644,386 @@ public class MembersListActivity extends ListActivity implements OnSharedPrefere
                 // build the WHERE cause
                 StringBuilder selectionBuilder = new StringBuilder();
                 selectionBuilder.append(" ( ");
-                selectionBuilder.append("( UPPER(").append(Member.LAST_NAME).append(") GLOB ? )");
+                appendPrefixRange(selectionBuilder, Member.LAST_NAME_KEY);
                 selectionBuilder.append(" OR ");
-                selectionBuilder.append("( UPPER(").append(Member.FIRST_NAME).append(") GLOB ? )");
+                appendPrefixRange(selectionBuilder, Member.FIRST_NAME_KEY);
                 selectionBuilder.append(" ) ");
                 selection = selectionBuilder.toString();
 
-                // and the associated search term
-                String searchTerm = constraint.toString().toUpperCase() + "*";
+                // and the associated range of search keys
+                String lowerBound = SearchKey.fold(constraint.toString());
+                String upperBound = SearchKey.upperBound(lowerBound);
+                if (upperBound == null) {
+                    // no greater key : the range is open
+                    upperBound = lowerBound + Character.MAX_VALUE;
+                }
                 selectionArgs = new String[] {
-                        searchTerm, searchTerm
+                        lowerBound, upperBound, lowerBound, upperBound
                 };
             }
 
             // build and return the new cursor
             return buildCursor(selection, selectionArgs);
         }
+
+        /**
+         * Append the selection of the keys starting with a prefix (given as
+         * two arguments : the prefix, and its upper bound)
+         * 
+         * @param selection to append to
+         * @param column of the search key
+         */
+        private void appendPrefixRange(StringBuilder selection, String column) {
+            selection.append("( ").append(column).append(" >= ? AND ");
+            selection.append(column).append(" < ? )");
+        }
+    }
+
+    /**
+     * The pages of members loaded so far, merged in a single cursor. The first
+     * page is loaded when the list is (re)built, and the next ones on demand,
+     * while scrolling : each one is a keyset-paginated query of the members
+     * after the last one loaded (see {@link Member#AFTER_PARAMETER}), run in
+     * the background by the {@link MembersQueryHandler}, and appended to
+     * this cursor when done.<br />
+     * The members may have changed since the anchors of the pages were read :
+     * a requery (when the members change, or when the activity is restarted)
+     * starts again from the first page, the next ones being loaded again while
+     * scrolling. The pages are closed as soon as they are dropped.
+     */
+    private static class MembersPagesCursor extends AbstractCursor {
+
+        /** The pages loaded so far (at least the first one) */
+        private final List<Cursor> pages = new ArrayList<Cursor>();
+
+        /** The selection of the members (may be null) */
+        private final String selection;
+
+        /** The arguments of the selection (may be null) */
+        private final String[] selectionArgs;
+
+        /** The order of the members */
+        private final String orderBy;
+
+        /** The page of the current row */
+        private Cursor page;
+
+        /**
+         * Incremented when the pages are dropped : the pages loaded for a
+         * previous generation are not appended
+         */
+        private int generation;
+
+        /** True if the next page is being loaded */
+        private boolean loading;
+
+        /**
+         * The code of the last member of the last page (the anchor of the next
+         * page), read when the page is added : the position of a page must not
+         * be moved afterwards, it may be the current row of this cursor
+         */
+        private String lastCode;
+
+        MembersPagesCursor(Cursor firstPage, String selection, String[] selectionArgs,
+                String orderBy) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.orderBy = orderBy;
+            pages.add(firstPage);
+            lastCode = readLastCode(firstPage);
+        }
+
+        /**
+         * @param after code of the last member of the previous page, or null
+         *            for the first page
+         * @return the URI of a page of members
+         */
+        static Uri pageUri(String after) {
+            Uri.Builder builder = Member.CONTENT_URI.buildUpon();
+            builder.appendQueryParameter(Member.LIMIT_PARAMETER, Integer.toString(PAGE_SIZE));
+            if (after != null) {
+                builder.appendQueryParameter(Member.AFTER_PARAMETER, after);
+            }
+            return builder.build();
+        }
+
+        /**
+         * @return true if there may be more members after the last page (it is
+         *         full), and it is not being loaded yet
+         */
+        boolean hasMorePages() {
+            return !loading && !isClosed() && pages.get(pages.size() - 1).getCount() >= PAGE_SIZE;
+        }
+
+        /**
+         * Start loading the next page of members, in the background. It is
+         * appended by {@link #addPage(int, Cursor)} when loaded.
+         * 
+         * @param queryHandler used to query the members
+         */
+        void loadNextPage(AsyncQueryHandler queryHandler) {
+            loading = true;
+            queryHandler.startQuery(generation, this, pageUri(lastCode), PROJECTION, selection,
+                    selectionArgs, orderBy);
+        }
+
+        /**
+         * Start counting all the members of the selection (not only the pages
+         * loaded so far), in the background
+         * 
+         * @param queryHandler used to query the members
+         * @param cookie given back with the count
+         */
+        void countMembers(AsyncQueryHandler queryHandler, Object cookie) {
+            queryHandler.startQuery(0, cookie, Member.CONTENT_URI, COUNT_PROJECTION, selection,
+                    selectionArgs, null);
+        }
+
+        /**
+         * Append a page loaded by {@link #loadNextPage(AsyncQueryHandler)}, or
+         * close it if the pages have been dropped since.
+         * 
+         * @param pageGeneration the generation for which the page was loaded
+         * @param newPage the page (null if the query failed)
+         */
+        void addPage(int pageGeneration, Cursor newPage) {
+            if (pageGeneration != generation || isClosed()) {
+                if (newPage != null) {
+                    newPage.close();
+                }
+                return;
+            }
+            loading = false;
+            if (newPage != null) {
+                lastCode = readLastCode(newPage);
+                pages.add(newPage);
+                mDataSetObservable.notifyChanged();
+            }
+        }
+
+        @Override
+        public boolean requery() {
+            // the anchors of the next pages may be stale : first page only
+            dropPages(1);
+            mPos = -1;
+            page = null;
+            if (!pages.get(0).requery()) {
+                return false;
+            }
+            lastCode = readLastCode(pages.get(0));
+            return super.requery();
+        }
+
+        @Override
+        public void deactivate() {
+            for (Cursor cursor : pages) {
+                cursor.deactivate();
+            }
+            super.deactivate();
+        }
+
+        @Override
+        public void close() {
+            super.close();
+            dropPages(0);
+        }
+
+        @Override
+        public boolean onMove(int oldPosition, int newPosition) {
+            int start = 0;
+            for (Cursor cursor : pages) {
+                int count = cursor.getCount();
+                if (newPosition < start + count) {
+                    page = cursor;
+                    return cursor.moveToPosition(newPosition - start);
+                }
+                start += count;
+            }
+            page = null;
+            return false;
+        }
+
+        @Override
+        public int getCount() {
+            int count = 0;
+            for (Cursor cursor : pages) {
+                count += cursor.getCount();
+            }
+            return count;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return pages.get(0).getColumnNames();
+        }
+
+        @Override
+        public String getString(int column) {
+            return page.getString(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return page.getShort(column);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return page.getInt(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return page.getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return page.getFloat(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return page.getDouble(column);
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            return page.getBlob(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return page.isNull(column);
+        }
+
+        /**
+         * @param newPage a page which is not the page of the current row
+         * @return the code of the last member of the page, or null if it is
+         *         empty
+         */
+        private static String readLastCode(Cursor newPage) {
+            if (!newPage.moveToLast()) {
+                return null;
+            }
+            return newPage.getString(newPage.getColumnIndexOrThrow(Member.CODE));
+        }
+
+        /**
+         * Close and drop the pages after the given number of pages, and ignore
+         * the page being loaded
+         * 
+         * @param kept number of pages kept
+         */
+        private void dropPages(int kept) {
+            while (pages.size() > kept) {
+                pages.remove(pages.size() - 1).close();
+            }
+            generation++;
+            loading = false;
+        }
+    }
+
+    /**
+     * AsyncQueryHandler implementation for the list : appends the pages of
+     * members loaded in the background to their cursor, and displays the
+     * number of members in the statistics dialog (from the UI thread).
+     */
+    private class MembersQueryHandler extends AsyncQueryHandler {
+
+        MembersQueryHandler(ContentResolver resolver) {
+            super(resolver);
+        }
+
+        @Override
+        protected void onQueryComplete(int token, Object cookie, Cursor cursor) {
+            if (cookie instanceof MembersPagesCursor) {
+                ((MembersPagesCursor)cookie).addPage(token, cursor);
+                return;
+            }
+            if (cursor == null) {
+                return;
+            }
+            try {
+                if (cursor.moveToFirst()) {
+                    ((AlertDialog)cookie).setMessage(getString(R.string.dialog_stats_text,
+                            cursor.getInt(0)));
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * OnScrollListener implementation for the pagination : loads the next
+     * page of members when the last loaded rows are about to be displayed.
+     */
+    private class MembersScrollListener implements OnScrollListener {
+
+        @Override
+        public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount,
+                int totalItemCount) {
+            if (totalItemCount == 0
+                    || firstVisibleItem + visibleItemCount < totalItemCount - PAGE_PREFETCH) {
+                return;
+            }
+            Cursor cursor = cursorAdapter.getCursor();
+            if (cursor instanceof MembersPagesCursor
+                    && ((MembersPagesCursor)cursor).hasMorePages()) {
+                ((MembersPagesCursor)cursor).loadNextPage(queryHandler);
+            }
+        }
+
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * ProgressListener implementation for the CSV import. Displays the
+     * percentage of the file imported, the throughput and the remaining time
+     * in the progress dialog (from the UI thread).
+     */
+    private class ImportProgressListener implements ProgressListener {
+
+        @Override
+        public void onProgress(ImportStats stats) {
+            final int percentage = stats.getPercentage();
+            long remainingTime = stats.getRemainingTime();
+            final String status;
+            if (remainingTime < 0) {
+                // no estimate yet (or unknown size)
+                status = getString(R.string.import_csv_progress_bar_status_unknown, stats
+                        .getRowsParsed(), stats.getRowsPerSecond(), stats.getRowsWritten());
+            } else {
+                status = getString(R.string.import_csv_progress_bar_status, stats
+                        .getRowsParsed(), stats.getRowsPerSecond(), stats.getRowsWritten(),
+                        (remainingTime + 999) / 1000);
+            }
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (progressDialog != null) {
+                        progressDialog.setProgress(percentage);
+                        progressDialog.setMessage(status);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onFinished(ImportStats stats) {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (progressDialog != null) {
+                        progressDialog.setProgress(100);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -0,0 +1,353 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * A reader that decodes the bytes of a channel in large blocks, with a
+ * CharsetDecoder. The charset is detected from the first block : byte order
+ * mark if any, UTF-8 if the block is valid UTF-8 (and not only ASCII), or
+ * Windows-1252 (the encoding of the FFCK extranet exports) otherwise.<br />
+ * The reader can also map a position in the chars it returned back to a byte
+ * offset in the channel (see {@link #getByteOffset(long)}), so that a reading
+ * can be resumed later from that offset.
+ */
+public class ChannelReader extends Reader {
+
+    /** Size of the bytes buffer (number of bytes read at once from the channel) */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Name of the charset used when the content is not UTF-8 */
+    private static final String FALLBACK_CHARSET = "windows-1252";
+
+    /** The channel from which the bytes are read */
+    private final ReadableByteChannel channel;
+
+    /** The bytes buffer, filled from the channel */
+    private final ByteBuffer bytes = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /** The detected charset */
+    private final Charset charset;
+
+    /** The decoder for the detected charset */
+    private final CharsetDecoder decoder;
+
+    /** True when the end of the channel has been reached */
+    private boolean endOfInput;
+
+    /** True when the decoder has been flushed (nothing more to read) */
+    private boolean flushed;
+
+    /** Number of bytes read from the channel so far (including the start offset) */
+    private long bytesRead;
+
+    /** Bytes per char of the charset, or 0 for UTF-8 (variable length) */
+    private final int bytesPerChar;
+
+    /** Number of chars returned by the previous read calls */
+    private long charsRead;
+
+    /** Buffer filled by the last read call */
+    private char[] lastBuffer;
+
+    /** Offset of the first char of the last read call, in lastBuffer */
+    private int lastOffset;
+
+    /** Number of chars returned by the last read call */
+    private int lastCount;
+
+    /** Byte offset (in the channel) of the first char of the last read call */
+    private long lastByteOffset;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new reader for the given channel. The first block is read
+     * immediately, to detect the charset.
+     * 
+     * @param channel from which the bytes will be read
+     * @throws IOException if unable to read from the channel
+     */
+    public ChannelReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        fill();
+        bytes.flip();
+        charset = detectCharset(bytes);
+        bytesPerChar = bytesPerChar(charset);
+        decoder = newDecoder(charset);
+        lastByteOffset = bytes.position();
+    }
+
+    /**
+     * Build a new reader for the given channel, already positioned at the
+     * given offset (a previous position returned by
+     * {@link #getByteOffset(long)}) : there is no charset detection.
+     * 
+     * @param channel from which the bytes will be read
+     * @param charset of the content
+     * @param startOffset current position of the channel
+     * @throws IOException if unable to read from the channel
+     */
+    public ChannelReader(ReadableByteChannel channel, Charset charset, long startOffset)
+            throws IOException {
+        this.channel = channel;
+        this.charset = charset;
+        bytesPerChar = bytesPerChar(charset);
+        decoder = newDecoder(charset);
+        bytesRead = startOffset;
+        lastByteOffset = startOffset;
+        fill();
+        bytes.flip();
+    }
+
+    /*
+     * Business methods
+     */
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+        if (flushed) {
+            return -1;
+        }
+
+        long byteOffset = bytesRead - bytes.remaining();
+        CharBuffer out = CharBuffer.wrap(buffer, offset, length);
+        while (out.position() == offset) {
+            CoderResult result = decoder.decode(bytes, out, endOfInput);
+            if (result.isOverflow()) {
+                break;
+            }
+            if (endOfInput) {
+                decoder.flush(out);
+                flushed = true;
+                break;
+            }
+            // underflow : we need more bytes
+            bytes.compact();
+            fill();
+            bytes.flip();
+        }
+
+        int count = out.position() - offset;
+        charsRead += lastCount;
+        lastBuffer = buffer;
+        lastOffset = offset;
+        lastCount = count;
+        lastByteOffset = byteOffset;
+        return count == 0 && flushed ? -1 : count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return the charset used to decode the bytes
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the number of bytes read from the channel so far (including the
+     *         start offset, if any)
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Map a position in the chars returned by this reader to a byte offset in
+     * the channel. Only the positions in the chars returned by the last read
+     * call can be mapped : the chars must still be in the caller's buffer.
+     * 
+     * @param charOffset number of chars consumed from this reader
+     * @return the byte offset of the char, or -1 if it can't be mapped
+     */
+    public long getByteOffset(long charOffset) {
+        long index = charOffset - charsRead;
+        if (index < 0 || index > lastCount) {
+            return -1;
+        }
+        if (index == 0) {
+            return lastByteOffset;
+        }
+        return lastByteOffset + getEncodedLength(lastBuffer, lastOffset, (int)index);
+    }
+
+    /**
+     * Compute the number of bytes used to encode the given chars in the
+     * charset of this reader. The result is exact for valid content (the
+     * chars replacing malformed input may not have the same length).
+     * 
+     * @param chars to encode
+     * @param start offset of the first char
+     * @param length number of chars
+     * @return the number of bytes
+     */
+    public int getEncodedLength(char[] chars, int start, int length) {
+        if (bytesPerChar > 0) {
+            return length * bytesPerChar;
+        }
+
+        // UTF-8 : a surrogate pair is 4 bytes, 2 for each of its chars
+        int encodedLength = 0;
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                encodedLength += 1;
+            } else if (c < 0x800 || (c >= 0xD800 && c <= 0xDFFF)) {
+                encodedLength += 2;
+            } else {
+                encodedLength += 3;
+            }
+        }
+        return encodedLength;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Fill the bytes buffer from the channel (until it is full or the end of
+     * the channel is reached).
+     * 
+     * @throws IOException if unable to read from the channel
+     */
+    private void fill() throws IOException {
+        while (!endOfInput && bytes.hasRemaining()) {
+            int count = channel.read(bytes);
+            if (count < 0) {
+                endOfInput = true;
+            } else {
+                bytesRead += count;
+            }
+        }
+    }
+
+    /**
+     * @param charset of the content
+     * @return a new decoder for the given charset, replacing the malformed
+     *         input
+     */
+    private static CharsetDecoder newDecoder(Charset charset) {
+        CharsetDecoder decoder = charset.newDecoder();
+        decoder.onMalformedInput(CodingErrorAction.REPLACE);
+        decoder.onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return decoder;
+    }
+
+    /**
+     * @param charset one of the charsets detected by this reader
+     * @return the number of bytes per char, or 0 for UTF-8 (variable length)
+     */
+    private static int bytesPerChar(Charset charset) {
+        String name = charset.name();
+        if (name.equals("UTF-8")) {
+            return 0;
+        }
+        if (name.startsWith("UTF-16")) {
+            return 2;
+        }
+        return 1;
+    }
+
+    /**
+     * Detect the charset of the given block, and skip its byte order mark (if
+     * any).
+     * 
+     * @param block the first bytes of the content
+     * @return the detected charset, won't be null
+     */
+    private static Charset detectCharset(ByteBuffer block) {
+        int limit = block.limit();
+        if (limit >= 3 && (block.get(0) & 0xFF) == 0xEF && (block.get(1) & 0xFF) == 0xBB
+                && (block.get(2) & 0xFF) == 0xBF) {
+            block.position(3);
+            return Charset.forName("UTF-8");
+        }
+        if (limit >= 2 && (block.get(0) & 0xFF) == 0xFE && (block.get(1) & 0xFF) == 0xFF) {
+            block.position(2);
+            return Charset.forName("UTF-16BE");
+        }
+        if (limit >= 2 && (block.get(0) & 0xFF) == 0xFF && (block.get(1) & 0xFF) == 0xFE) {
+            block.position(2);
+            return Charset.forName("UTF-16LE");
+        }
+        if (isUtf8(block)) {
+            return Charset.forName("UTF-8");
+        }
+        if (Charset.isSupported(FALLBACK_CHARSET)) {
+            return Charset.forName(FALLBACK_CHARSET);
+        }
+        return Charset.forName("ISO-8859-1");
+    }
+
+    /**
+     * @param block of bytes
+     * @return true if the block contains some multi-bytes UTF-8 sequences, and
+     *         only valid ones (a sequence truncated by the end of the block is
+     *         accepted)
+     */
+    private static boolean isUtf8(ByteBuffer block) {
+        boolean multiBytes = false;
+        int limit = block.limit();
+        int i = block.position();
+        while (i < limit) {
+            int b = block.get(i) & 0xFF;
+            int continuations;
+            if (b < 0x80) {
+                i++;
+                continue;
+            } else if (b >= 0xC2 && b <= 0xDF) {
+                continuations = 1;
+            } else if (b >= 0xE0 && b <= 0xEF) {
+                continuations = 2;
+            } else if (b >= 0xF0 && b <= 0xF4) {
+                continuations = 3;
+            } else {
+                return false;
+            }
+            for (int j = 1; j <= continuations; j++) {
+                if (i + j >= limit) {
+                    return multiBytes;
+                }
+                if ((block.get(i + j) & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            multiBytes = true;
+            i += continuations + 1;
+        }
+        return multiBytes;
+    }
+
+}
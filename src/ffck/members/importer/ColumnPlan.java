@@ -0,0 +1,205 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import ffck.members.Member;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * The import plan of a CSV file, compiled once from its header. For each CSV
+ * position, it holds the slot of the target database column (see
+ * {@link #COLUMNS}) and the normalizer to apply. Processing a row is then a
+ * simple loop over the positions, without any hashing or string comparison.<br />
+ * The normalizers bound to a plan may be stateful : a plan should only be used
+ * by one thread at a time.
+ */
+public final class ColumnPlan {
+
+    /** The database columns that can be filled by an import, one per slot */
+    public static final String[] COLUMNS = {
+            Member.CODE, Member.LAST_NAME, Member.FIRST_NAME, Member.BIRTH_DATE, Member.GENDER,
+            Member.ADDRESS, Member.POSTAL_CODE, Member.CITY, Member.COUNTRY, Member.PHONE_HOME,
+            Member.PHONE_OTHER, Member.PHONE_MOBILE, Member.PHONE_MOBILE_2, Member.EMAIL,
+            Member.EMAIL_2, Member.LAST_LICENSE
+    };
+
+    /** Marker for the CSV positions that are not imported */
+    private static final int UNMAPPED = -1;
+
+    /** Slot of the country, needed to normalize the phone numbers */
+    private static final int COUNTRY_SLOT = indexOf(Member.COUNTRY);
+
+    /** Target slot (in COLUMNS) for each CSV position, or UNMAPPED */
+    private final int[] slots;
+
+    /** Normalizer for each CSV position (null if unmapped) */
+    private final FieldNormalizer[] normalizers;
+
+    /**
+     * For each CSV position, true if its value should be appended to the value
+     * of a previous position with the same target slot (the address has the
+     * same header twice in the CSV...)
+     */
+    private final boolean[] merges;
+
+    /**
+     * For each CSV position, true if it is a phone number (normalized after
+     * all the other fields, when the country of the row is known)
+     */
+    private final boolean[] phones;
+
+    /** The normalizer bound to the phone positions */
+    private final PhoneNormalizer phoneNormalizer;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Private constructor : use {@link #compile(String[], Map)}
+     */
+    private ColumnPlan(int[] slots, FieldNormalizer[] normalizers, boolean[] merges,
+            boolean[] phones, PhoneNormalizer phoneNormalizer) {
+        this.slots = slots;
+        this.normalizers = normalizers;
+        this.merges = merges;
+        this.phones = phones;
+        this.phoneNormalizer = phoneNormalizer;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Compile the import plan for the given CSV header.
+     * 
+     * @param header the CSV header tokens
+     * @param mapping between the CSV header and the database columns
+     * @return new plan instance, won't be null
+     */
+    public static ColumnPlan compile(String[] header, Map<String, String> mapping) {
+        int[] slots = new int[header.length];
+        FieldNormalizer[] normalizers = new FieldNormalizer[header.length];
+        boolean[] merges = new boolean[header.length];
+        boolean[] phones = new boolean[header.length];
+        boolean[] used = new boolean[COLUMNS.length];
+        FieldNormalizers available = new FieldNormalizers();
+
+        for (int i = 0; i < header.length; i++) {
+            int slot = indexOf(mapping.get(header[i]));
+            slots[i] = slot;
+            if (slot != UNMAPPED) {
+                normalizers[i] = available.forColumn(COLUMNS[slot]);
+                merges[i] = used[slot];
+                phones[i] = normalizers[i] == available.getPhoneNormalizer();
+                used[slot] = true;
+            }
+        }
+        return new ColumnPlan(slots, normalizers, merges, phones, available
+                .getPhoneNormalizer());
+    }
+
+    /**
+     * Apply the plan to the current record of the given tokenizer : every
+     * mapped field is normalized and stored in its slot of the given row.
+     * 
+     * @param tokenizer positioned on the record to process
+     * @param row array (of COLUMNS.length elements) that will receive the
+     *            values. Slots without any value will be null.
+     * @return the number of mapped fields found in the record
+     */
+    public int apply(CsvTokenizer tokenizer, String[] row) {
+        Arrays.fill(row, null);
+        char[] buffer = tokenizer.getRecordBuffer();
+        int count = Math.min(tokenizer.getFieldCount(), slots.length);
+        int mapped = 0;
+
+        // first pass : everything but the phone numbers
+        for (int i = 0; i < count; i++) {
+            if (slots[i] != UNMAPPED && !phones[i]) {
+                applyAt(i, tokenizer, buffer, row);
+                mapped++;
+            }
+        }
+
+        // second pass : phone numbers, using the rules of the member's country
+        phoneNormalizer.setCountry(row[COUNTRY_SLOT]);
+        for (int i = 0; i < count; i++) {
+            if (phones[i]) {
+                applyAt(i, tokenizer, buffer, row);
+                mapped++;
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * @param column name of a database column
+     * @return the slot of the given column in COLUMNS, or -1 if the column is
+     *         not imported
+     */
+    public static int indexOf(String column) {
+        if (column != null) {
+            for (int i = 0; i < COLUMNS.length; i++) {
+                if (COLUMNS[i].equals(column)) {
+                    return i;
+                }
+            }
+        }
+        return UNMAPPED;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Normalize the field at the given CSV position, and store it in its slot
+     * 
+     * @param position of the field in the CSV record
+     * @param tokenizer positioned on the record to process
+     * @param buffer the record buffer of the tokenizer
+     * @param row array that will receive the value
+     */
+    private void applyAt(int position, CsvTokenizer tokenizer, char[] buffer, String[] row) {
+        int slot = slots[position];
+        String value = normalizers[position].normalize(buffer, tokenizer.getFieldStart(position),
+                tokenizer.getFieldLength(position));
+        if (merges[position]) {
+            value = merge(row[slot], value);
+        }
+        row[slot] = value;
+    }
+
+    /**
+     * Merge two values of the same column (multiline)
+     * 
+     * @param previous value, from a previous position
+     * @param value from the current position
+     * @return merged value
+     */
+    private static String merge(String previous, String value) {
+        if (value.length() == 0) {
+            return previous;
+        }
+        return previous + "\n" + value;
+    }
+
+}
@@ -0,0 +1,181 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Splits the content of a reader in chunks of CSV data, each chunk ending at a
+ * record boundary (a line break which is not inside a quoted field). The
+ * chunks can then be tokenized independently (and in parallel) with
+ * {@link CsvTokenizer#CsvTokenizer(char[], int, char)}.<br />
+ * Finding the boundaries only needs a light sequential scan (quotes,
+ * separators and line breaks), the real parsing work is left to the chunks
+ * consumers. The quotes are interpreted as by the tokenizer : a quote only
+ * opens a quoted field at the start of the field, anywhere else it is a plain
+ * char (ie '5" rue').
+ */
+public class CsvChunker {
+
+    /** The reader from which the chars are read */
+    private final Reader reader;
+
+    /** The CSV separator */
+    private final char separator;
+
+    /** Chars read from the reader but not yet returned in a chunk */
+    private char[] pending = new char[0];
+
+    /** Number of valid chars in the pending array */
+    private int pendingLength;
+
+    /** True when the end of the reader has been reached */
+    private boolean endOfInput;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new chunker reading from the given reader.
+     * 
+     * @param reader from which the CSV data will be read
+     * @param separator the CSV separator
+     */
+    public CsvChunker(Reader reader, char separator) {
+        this.reader = reader;
+        this.separator = separator;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Read the next chunk : at least the given number of chars (unless we hit
+     * the end of the input), up to the end of the record.
+     * 
+     * @param minLength minimum number of chars of the chunk
+     * @return the next chunk, or null if we hit the end of the input
+     * @throws IOException if unable to read from the reader
+     */
+    public Chunk nextChunk(int minLength) throws IOException {
+        char[] chars = new char[Math.max(minLength + minLength / 4, pendingLength + 1)];
+        System.arraycopy(pending, 0, chars, 0, pendingLength);
+        int length = pendingLength;
+
+        boolean quoted = false;
+        boolean closingQuote = false;
+        boolean fieldStart = true;
+        int scanned = 0;
+        int boundary = -1;
+        while (boundary < 0) {
+            // scan what we have
+            for (; scanned < length; scanned++) {
+                char c = chars[scanned];
+                if (closingQuote) {
+                    closingQuote = false;
+                    if (c == '"') {
+                        // escaped quote
+                        fieldStart = false;
+                        continue;
+                    }
+                    // end of the quoted field : this char is not quoted
+                    quoted = false;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        // end of the quoted field, unless followed by a quote
+                        closingQuote = true;
+                    } else {
+                        fieldStart = false;
+                    }
+                    continue;
+                }
+                if (c == '"' && fieldStart) {
+                    quoted = true;
+                } else if (c == separator || c == '\r') {
+                    fieldStart = true;
+                } else if (c == '\n') {
+                    fieldStart = true;
+                    if (scanned + 1 >= minLength) {
+                        boundary = scanned + 1;
+                        break;
+                    }
+                } else {
+                    fieldStart = false;
+                }
+            }
+            if (boundary >= 0) {
+                break;
+            }
+            if (endOfInput) {
+                boundary = length;
+                break;
+            }
+
+            // read more
+            if (length == chars.length) {
+                char[] newChars = new char[chars.length * 2];
+                System.arraycopy(chars, 0, newChars, 0, length);
+                chars = newChars;
+            }
+            int count = reader.read(chars, length, chars.length - length);
+            if (count < 0) {
+                endOfInput = true;
+                reader.close();
+            } else {
+                length += count;
+            }
+        }
+
+        // keep the chars after the boundary for the next chunk
+        pendingLength = length - boundary;
+        if (pending.length < pendingLength) {
+            pending = new char[pendingLength];
+        }
+        System.arraycopy(chars, boundary, pending, 0, pendingLength);
+
+        if (boundary == 0) {
+            return null;
+        }
+        return new Chunk(chars, boundary);
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * A chunk of CSV data, starting and ending at a record boundary
+     */
+    public static class Chunk {
+
+        /** The chars of the chunk (may be larger than the chunk) */
+        public final char[] chars;
+
+        /** The number of chars of the chunk */
+        public final int length;
+
+        Chunk(char[] chars, int length) {
+            this.chars = chars;
+            this.length = length;
+        }
+    }
+
+}
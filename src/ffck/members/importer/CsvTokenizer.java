@@ -0,0 +1,314 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A streaming, single-pass CSV tokenizer. It reads the characters straight from
+ * the given reader (through its own buffer), and splits them in records and
+ * fields. Quoted fields are supported, including escaped quotes ("") and
+ * embedded separators or line breaks.<br />
+ * The fields of the current record are not returned as Strings : they are
+ * exposed as slices (start + length) of a record buffer which is reused from
+ * one record to the next. Use {@link #getField(int)} only when a String is
+ * really needed.
+ */
+public class CsvTokenizer {
+
+    /** Size of the input buffer (number of chars read at once from the reader) */
+    private static final int INPUT_BUFFER_SIZE = 16 * 1024;
+
+    /** Marker returned by the read method when the end of the input is reached */
+    private static final int EOF = -1;
+
+    /** The reader from which the chars are read */
+    private Reader reader;
+
+    /** The fields separator */
+    private final char separator;
+
+    /** The input buffer, filled from the reader (if any) */
+    private final char[] input;
+
+    /** Position of the next char to read in the input buffer */
+    private int inputPosition;
+
+    /** Number of valid chars in the input buffer */
+    private int inputLimit;
+
+    /** Number of chars consumed before the current content of the input buffer */
+    private long inputStart;
+
+    /** The record buffer, holding the (unquoted) chars of the current record */
+    private char[] record = new char[256];
+
+    /** Number of valid chars in the record buffer */
+    private int recordLength;
+
+    /** Start offsets of the fields of the current record */
+    private int[] fieldStarts = new int[32];
+
+    /** End offsets (exclusive) of the fields of the current record */
+    private int[] fieldEnds = new int[32];
+
+    /** Number of fields in the current record */
+    private int fieldCount;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new tokenizer reading from the given reader.
+     * 
+     * @param reader from which the CSV data will be read
+     * @param separator the fields separator (usually ';' or ',')
+     */
+    public CsvTokenizer(Reader reader, char separator) {
+        this.reader = reader;
+        this.separator = separator;
+        this.input = new char[INPUT_BUFFER_SIZE];
+    }
+
+    /**
+     * Build a new tokenizer reading directly from the given chars (without any
+     * copy). Used to tokenize a chunk of a CSV file, which must start at a
+     * record boundary.
+     * 
+     * @param chars holding the CSV data
+     * @param length number of valid chars in the array
+     * @param separator the fields separator (usually ';' or ',')
+     */
+    public CsvTokenizer(char[] chars, int length, char separator) {
+        this.reader = null;
+        this.separator = separator;
+        this.input = chars;
+        this.inputLimit = length;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Read the next record from the input. Empty lines are skipped. If we hit
+     * the end of the input, the reader will be closed.
+     * 
+     * @return true if a record has been read, false if we hit the end of the
+     *         input
+     * @throws IOException if unable to read from the input
+     */
+    public boolean nextRecord() throws IOException {
+        recordLength = 0;
+        fieldCount = 0;
+        int fieldStart = 0;
+        boolean quoted = false;
+        boolean empty = true;
+
+        while (true) {
+            int c = read();
+            if (c == EOF) {
+                if (empty) {
+                    close();
+                    return false;
+                }
+                endField(fieldStart);
+                return true;
+            }
+
+            if (quoted) {
+                if (c == '"') {
+                    int next = read();
+                    if (next == '"') {
+                        append('"');
+                        continue;
+                    }
+                    quoted = false;
+                    if (next == EOF) {
+                        continue;
+                    }
+                    // not an escaped quote : process it as a normal char
+                    inputPosition--;
+                    continue;
+                }
+                append((char)c);
+                continue;
+            }
+
+            if (c == separator) {
+                endField(fieldStart);
+                fieldStart = recordLength;
+                empty = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r') {
+                    int next = read();
+                    if (next != '\n' && next != EOF) {
+                        inputPosition--;
+                    }
+                }
+                if (!empty) {
+                    endField(fieldStart);
+                    return true;
+                }
+            } else if (c == '"' && recordLength == fieldStart) {
+                quoted = true;
+                empty = false;
+            } else {
+                append((char)c);
+                empty = false;
+            }
+        }
+    }
+
+    /**
+     * @return the number of chars consumed from the input so far (after a call
+     *         to {@link #nextRecord()}, the position of the end of the record)
+     */
+    public long getCharOffset() {
+        return inputStart + inputPosition;
+    }
+
+    /**
+     * @return the number of fields in the current record
+     */
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return the record buffer, which holds the chars of all the fields of the
+     *         current record. Its content is only valid until the next call to
+     *         {@link #nextRecord()}.
+     */
+    public char[] getRecordBuffer() {
+        return record;
+    }
+
+    /**
+     * @param index of the field in the current record
+     * @return the offset of the first char of the field in the record buffer
+     */
+    public int getFieldStart(int index) {
+        return fieldStarts[index];
+    }
+
+    /**
+     * @param index of the field in the current record
+     * @return the number of chars of the field
+     */
+    public int getFieldLength(int index) {
+        return fieldEnds[index] - fieldStarts[index];
+    }
+
+    /**
+     * @param index of the field in the current record
+     * @return a new String holding the value of the field, won't be null
+     */
+    public String getField(int index) {
+        return new String(record, fieldStarts[index], fieldEnds[index] - fieldStarts[index]);
+    }
+
+    /**
+     * @return a new array holding the values of all the fields of the current
+     *         record
+     */
+    public String[] getFields() {
+        String[] fields = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            fields[i] = getField(i);
+        }
+        return fields;
+    }
+
+    /**
+     * Close the underlying reader. Calling this method more than once has no
+     * effect.
+     * 
+     * @throws IOException if unable to close the reader
+     */
+    public void close() throws IOException {
+        if (reader != null) {
+            Reader toClose = reader;
+            reader = null;
+            toClose.close();
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Read the next char from the input buffer, filling it from the reader if
+     * needed.
+     * 
+     * @return the next char, or EOF
+     * @throws IOException if unable to read from the reader
+     */
+    private int read() throws IOException {
+        if (inputPosition == inputLimit) {
+            if (reader == null) {
+                return EOF;
+            }
+            int count = reader.read(input, 0, input.length);
+            if (count <= 0) {
+                return EOF;
+            }
+            inputStart += inputLimit;
+            inputPosition = 0;
+            inputLimit = count;
+        }
+        return input[inputPosition++];
+    }
+
+    /**
+     * Append a char to the current field (in the record buffer)
+     * 
+     * @param c char to append
+     */
+    private void append(char c) {
+        if (recordLength == record.length) {
+            char[] newRecord = new char[record.length * 2];
+            System.arraycopy(record, 0, newRecord, 0, recordLength);
+            record = newRecord;
+        }
+        record[recordLength++] = c;
+    }
+
+    /**
+     * Mark the end of the current field
+     * 
+     * @param fieldStart offset of the first char of the field in the record
+     *            buffer
+     */
+    private void endField(int fieldStart) {
+        if (fieldCount == fieldStarts.length) {
+            int[] newStarts = new int[fieldCount * 2];
+            int[] newEnds = new int[fieldCount * 2];
+            System.arraycopy(fieldStarts, 0, newStarts, 0, fieldCount);
+            System.arraycopy(fieldEnds, 0, newEnds, 0, fieldCount);
+            fieldStarts = newStarts;
+            fieldEnds = newEnds;
+        }
+        fieldStarts[fieldCount] = fieldStart;
+        fieldEnds[fieldCount] = recordLength;
+        fieldCount++;
+    }
+
+}
@@ -0,0 +1,36 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+/**
+ * Cleanup applied to the raw value of a CSV field before it is stored in the
+ * database. Implementations may keep some reusable state (buffers...), so an
+ * instance should not be shared between threads.
+ */
+public interface FieldNormalizer {
+
+    /**
+     * Normalize the given raw value.
+     * 
+     * @param buffer holding the chars of the raw value
+     * @param start offset of the first char of the raw value in the buffer
+     * @param length number of chars of the raw value
+     * @return the normalized value, won't be null
+     */
+    String normalize(char[] buffer, int start, int length);
+
+}
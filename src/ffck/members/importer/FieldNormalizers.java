@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import ffck.members.Member;
+
+import java.util.Locale;
+
+/**
+ * The {@link FieldNormalizer} implementations used by the FFCK Members CSV
+ * import, and the binding between the database columns and their normalizer.
+ * Stateless normalizers are shared constants, the others are created once per
+ * set.
+ */
+public final class FieldNormalizers {
+
+    /** Normalizer that keeps the raw value as-is */
+    public static final FieldNormalizer IDENTITY = new FieldNormalizer() {
+        @Override
+        public String normalize(char[] buffer, int start, int length) {
+            return new String(buffer, start, length);
+        }
+    };
+
+    /** Normalizer for the gender code : 'H' (for 'Homme') becomes 'M' */
+    public static final FieldNormalizer GENDER = new FieldNormalizer() {
+        @Override
+        public String normalize(char[] buffer, int start, int length) {
+            if (length == 1 && buffer[start] == 'H') {
+                return Member.GENDER_MALE;
+            }
+            return new String(buffer, start, length);
+        }
+    };
+
+    /** Normalizer for the address : lower-cased */
+    public static final FieldNormalizer ADDRESS = new FieldNormalizer() {
+        @Override
+        public String normalize(char[] buffer, int start, int length) {
+            return new String(buffer, start, length).toLowerCase(Locale.FRANCE);
+        }
+    };
+
+    /** Normalizer for the names, cities and countries (bound to this set) */
+    private final NameCapitalizer capitalizer = new NameCapitalizer();
+
+    /** Normalizer for the phone numbers (bound to this set) */
+    private final PhoneNormalizer phoneNormalizer = new PhoneNormalizer();
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new set of normalizers. The stateful normalizers (with reusable
+     * buffers) are shared by all the columns bound through this set, so a set
+     * should only be used by one thread at a time.
+     */
+    public FieldNormalizers() {
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Retrieve the normalizer that should be applied to the values of the
+     * given database column.
+     * 
+     * @param column name of the database column (see {@link Member})
+     * @return normalizer instance, won't be null
+     */
+    public FieldNormalizer forColumn(String column) {
+        if (Member.FIRST_NAME.equals(column) || Member.LAST_NAME.equals(column)
+                || Member.CITY.equals(column) || Member.COUNTRY.equals(column)) {
+            return capitalizer;
+        }
+        if (Member.PHONE_HOME.equals(column) || Member.PHONE_MOBILE.equals(column)
+                || Member.PHONE_MOBILE_2.equals(column) || Member.PHONE_OTHER.equals(column)) {
+            return phoneNormalizer;
+        }
+        if (Member.GENDER.equals(column)) {
+            return GENDER;
+        }
+        if (Member.ADDRESS.equals(column)) {
+            return ADDRESS;
+        }
+        return IDENTITY;
+    }
+
+    /**
+     * @return the phone numbers normalizer of this set, which needs to know
+     *         the member's country before normalizing its phone numbers
+     */
+    public PhoneNormalizer getPhoneNormalizer() {
+        return phoneNormalizer;
+    }
+
+}
@@ -0,0 +1,78 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+/**
+ * A position in a CSV file from which an import can be resumed : the byte
+ * offset of a record boundary, the number of data records before it, and the
+ * charset used to decode the file.
+ */
+public class ImportCheckpoint {
+
+    /** Byte offset of the first record after the checkpoint */
+    private final long byteOffset;
+
+    /** Number of data records (header excluded) before the checkpoint */
+    private final int row;
+
+    /** Name of the charset of the file */
+    private final String charsetName;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new checkpoint.
+     * 
+     * @param byteOffset of the first record after the checkpoint
+     * @param row number of data records before the checkpoint
+     * @param charsetName name of the charset of the file
+     */
+    public ImportCheckpoint(long byteOffset, int row, String charsetName) {
+        this.byteOffset = byteOffset;
+        this.row = row;
+        this.charsetName = charsetName;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @return the byte offset of the first record after the checkpoint
+     */
+    public long getByteOffset() {
+        return byteOffset;
+    }
+
+    /**
+     * @return the number of data records (header excluded) before the
+     *         checkpoint
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @return the name of the charset of the file
+     */
+    public String getCharsetName() {
+        return charsetName;
+    }
+
+}
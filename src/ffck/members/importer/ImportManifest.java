@@ -0,0 +1,260 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The manifest of the last imported file : its key (path or URI), length,
+ * modification date and content digest (SHA-1), stored in a private
+ * SharedPreferences file. It is used to skip the import of the same source
+ * when it is unchanged since its last import : another source with the same
+ * content (a copy, or the same file moved) is still imported. Any
+ * {@link ImportSource} can be recorded : the digest is computed on its raw
+ * (maybe compressed) content.<br />
+ * The manifest also holds the checkpoint of an interrupted import (cancelled
+ * or killed), so that the import of the same file can be resumed.<br />
+ * The manifest must be cleared when the members are modified outside of an
+ * import (deletion...), so that the next import is not skipped.
+ */
+public class ImportManifest {
+
+    /** Name of the SharedPreferences file holding the manifest */
+    private static final String PREFERENCES_NAME = "import_manifest";
+
+    /** Key of the path (or URI) of the last imported file */
+    private static final String KEY_PATH = "path";
+
+    /** Key of the length of the last imported file */
+    private static final String KEY_LENGTH = "length";
+
+    /** Key of the modification date of the last imported file */
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+
+    /** Key of the content digest of the last imported file */
+    private static final String KEY_DIGEST = "digest";
+
+    /** Key of the path of the file being imported (checkpoint) */
+    private static final String KEY_CHECKPOINT_PATH = "checkpoint_path";
+
+    /** Key of the length of the file being imported (checkpoint) */
+    private static final String KEY_CHECKPOINT_LENGTH = "checkpoint_length";
+
+    /** Key of the modification date of the file being imported (checkpoint) */
+    private static final String KEY_CHECKPOINT_LAST_MODIFIED = "checkpoint_last_modified";
+
+    /** Key of the byte offset of the checkpoint */
+    private static final String KEY_CHECKPOINT_OFFSET = "checkpoint_offset";
+
+    /** Key of the row of the checkpoint */
+    private static final String KEY_CHECKPOINT_ROW = "checkpoint_row";
+
+    /** Key of the charset of the file being imported (checkpoint) */
+    private static final String KEY_CHECKPOINT_CHARSET = "checkpoint_charset";
+
+    /** Size of the buffer used to compute the digest */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The preferences holding the manifest */
+    private final SharedPreferences preferences;
+
+    /** The key of the last source for which the digest has been computed */
+    private String digestKey;
+
+    /** The digest of the digestKey source */
+    private String digest;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new manifest instance, backed by the preferences of the given
+     * context.
+     * 
+     * @param context android context
+     */
+    public ImportManifest(Context context) {
+        preferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Check if the given file is the last imported file, unchanged. The
+     * digest is only computed if the file has the same length but not the
+     * same modification date (the same export written again...).
+     * 
+     * @param source to check
+     * @return true if the source has already been imported
+     */
+    public boolean isImported(ImportSource source) {
+        String importedDigest = preferences.getString(KEY_DIGEST, null);
+        if (importedDigest == null || !source.getKey().equals(preferences.getString(KEY_PATH,
+                null)) || source.getLength() != preferences.getLong(KEY_LENGTH, -1)) {
+            return false;
+        }
+        if (source.lastModified() != 0
+                && source.lastModified() == preferences.getLong(KEY_LAST_MODIFIED, -1)) {
+            return true;
+        }
+        return importedDigest.equals(digest(source));
+    }
+
+    /**
+     * Record the given source as the last imported file.
+     * 
+     * @param source which has been imported
+     */
+    public void recordImport(ImportSource source) {
+        String fileDigest = digest(source);
+        if (fileDigest == null) {
+            clear();
+            return;
+        }
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString(KEY_PATH, source.getKey());
+        editor.putLong(KEY_LENGTH, source.getLength());
+        editor.putLong(KEY_LAST_MODIFIED, source.lastModified());
+        editor.putString(KEY_DIGEST, fileDigest);
+        editor.commit();
+    }
+
+    /**
+     * Record a checkpoint of the import of the given source.
+     * 
+     * @param source being imported
+     * @param checkpoint from which the import may be resumed
+     */
+    public void saveCheckpoint(ImportSource source, ImportCheckpoint checkpoint) {
+        SharedPreferences.Editor editor = preferences.edit();
+        editor.putString(KEY_CHECKPOINT_PATH, source.getKey());
+        editor.putLong(KEY_CHECKPOINT_LENGTH, source.getLength());
+        editor.putLong(KEY_CHECKPOINT_LAST_MODIFIED, source.lastModified());
+        editor.putLong(KEY_CHECKPOINT_OFFSET, checkpoint.getByteOffset());
+        editor.putInt(KEY_CHECKPOINT_ROW, checkpoint.getRow());
+        editor.putString(KEY_CHECKPOINT_CHARSET, checkpoint.getCharsetName());
+        editor.commit();
+    }
+
+    /**
+     * @param source to import
+     * @return the checkpoint of the interrupted import of the given source, or
+     *         null if there is none (or if the source has been modified since,
+     *         or if it can't be checked : unknown length)
+     */
+    public ImportCheckpoint getCheckpoint(ImportSource source) {
+        if (source.getLength() < 0
+                || !source.getKey().equals(preferences.getString(KEY_CHECKPOINT_PATH, null))
+                || source.getLength() != preferences.getLong(KEY_CHECKPOINT_LENGTH, -1)
+                || source.lastModified() != preferences.getLong(KEY_CHECKPOINT_LAST_MODIFIED,
+                        -1)) {
+            return null;
+        }
+        return new ImportCheckpoint(preferences.getLong(KEY_CHECKPOINT_OFFSET, 0), preferences
+                .getInt(KEY_CHECKPOINT_ROW, 0), preferences.getString(KEY_CHECKPOINT_CHARSET,
+                null));
+    }
+
+    /**
+     * Forget the checkpoint of the interrupted import (if any)
+     */
+    public void clearCheckpoint() {
+        if (preferences.contains(KEY_CHECKPOINT_PATH)) {
+            SharedPreferences.Editor editor = preferences.edit();
+            editor.remove(KEY_CHECKPOINT_PATH);
+            editor.remove(KEY_CHECKPOINT_LENGTH);
+            editor.remove(KEY_CHECKPOINT_LAST_MODIFIED);
+            editor.remove(KEY_CHECKPOINT_OFFSET);
+            editor.remove(KEY_CHECKPOINT_ROW);
+            editor.remove(KEY_CHECKPOINT_CHARSET);
+            editor.commit();
+        }
+    }
+
+    /**
+     * Forget the last imported file and the checkpoint (if any) : the next
+     * import will neither be skipped nor resumed.
+     */
+    public void clear() {
+        if (preferences.contains(KEY_DIGEST) || preferences.contains(KEY_CHECKPOINT_PATH)) {
+            preferences.edit().clear().commit();
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Compute the digest of the given source (or reuse the one computed for
+     * the same source).
+     * 
+     * @param source to digest
+     * @return the hex-encoded digest, or null if the source could not be read
+     */
+    private String digest(ImportSource source) {
+        if (source.getKey().equals(digestKey)) {
+            return digest;
+        }
+
+        String fileDigest = null;
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-1");
+            InputStream input = source.openRaw();
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int count;
+                while ((count = input.read(buffer)) >= 0) {
+                    messageDigest.update(buffer, 0, count);
+                }
+            } finally {
+                input.close();
+            }
+            fileDigest = toHex(messageDigest.digest());
+        } catch (IOException e) {
+            // unreadable file : never considered as imported
+        } catch (NoSuchAlgorithmException e) {
+            // no digest : never considered as imported
+        }
+        digestKey = source.getKey();
+        digest = fileDigest;
+        return fileDigest;
+    }
+
+    /**
+     * @param bytes to encode
+     * @return hex-encoded bytes
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+            hex.append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,383 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * The source of an import : a file, or any URI that can be opened by a
+ * {@link ContentResolver} (file manager, mail attachment, download...).<br />
+ * Compressed exports (gzip, or the first CSV file of a zip archive) are
+ * detected from their first bytes, and decompressed on the fly : the
+ * decompressed content is never written on the disk. The offsets given to
+ * {@link #open(long)} are always offsets in the decompressed content.<br />
+ * A source should only be used by one import at a time.
+ */
+public class ImportSource {
+
+    /** Size of the buffer used to read a stream */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** No compression */
+    private static final int COMPRESSION_NONE = 0;
+
+    /** Gzip compression (magic number 1F 8B) */
+    private static final int COMPRESSION_GZIP = 1;
+
+    /** Zip archive (magic number 'PK' 03 04) */
+    private static final int COMPRESSION_ZIP = 2;
+
+    /** The file of the source (null if it is not a file) */
+    private final File file;
+
+    /** The resolver used to open the URI (null for a file) */
+    private final ContentResolver resolver;
+
+    /** The URI of the source (null for a file) */
+    private final Uri uri;
+
+    /** The length of the source, or -2 if not known yet */
+    private long length = -2;
+
+    /** True if the content of the source is compressed (known once opened) */
+    private boolean compressed;
+
+    /** The stream counting the raw bytes read by the last opened channel */
+    private CountingInputStream rawInput;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Private constructor : use {@link #forFile(File)} or
+     * {@link #forUri(ContentResolver, Uri)}
+     */
+    private ImportSource(File file, ContentResolver resolver, Uri uri) {
+        this.file = file;
+        this.resolver = resolver;
+        this.uri = uri;
+    }
+
+    /**
+     * @param file to import
+     * @return a new source for the given file
+     */
+    public static ImportSource forFile(File file) {
+        return new ImportSource(file, null, null);
+    }
+
+    /**
+     * @param resolver used to open the URI
+     * @param uri to import (a 'file' URI is read as a file)
+     * @return a new source for the given URI
+     */
+    public static ImportSource forUri(ContentResolver resolver, Uri uri) {
+        String scheme = uri.getScheme();
+        if (scheme == null || "file".equals(scheme)) {
+            return forFile(new File(uri.getPath()));
+        }
+        return new ImportSource(null, resolver, uri);
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @return the key identifying the source : the absolute path of the file,
+     *         or the URI
+     */
+    public String getKey() {
+        return file != null ? file.getAbsolutePath() : uri.toString();
+    }
+
+    /**
+     * @return the name of the source (last segment of its path)
+     */
+    public String getName() {
+        if (file != null) {
+            return file.getName();
+        }
+        String name = uri.getLastPathSegment();
+        return name != null ? name : uri.toString();
+    }
+
+    /**
+     * @return the file of the source, or null if it is not a file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the length of the source (compressed, if it is), or -1 if
+     *         unknown
+     */
+    public long getLength() {
+        if (length == -2) {
+            length = -1;
+            if (file != null) {
+                length = file.length();
+            } else {
+                try {
+                    ParcelFileDescriptor descriptor = resolver.openFileDescriptor(uri, "r");
+                    if (descriptor != null) {
+                        length = descriptor.getStatSize();
+                        descriptor.close();
+                    }
+                } catch (IOException e) {
+                    // not a file : unknown length
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @return the modification date of the source, or 0 if unknown
+     */
+    public long lastModified() {
+        return file != null ? file.lastModified() : 0;
+    }
+
+    /**
+     * Open the raw content of the source (compressed, if it is)
+     * 
+     * @return a new stream, to be closed by the caller
+     * @throws IOException if unable to open the source
+     */
+    public InputStream openRaw() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        InputStream input = resolver.openInputStream(uri);
+        if (input == null) {
+            throw new IOException("Unable to open " + uri);
+        }
+        return input;
+    }
+
+    /**
+     * Open the (decompressed) content of the source, from the given offset. A
+     * plain file is opened as a seekable FileChannel, the other sources are
+     * streamed : their content before the offset is read and skipped.
+     * 
+     * @param offset in the decompressed content
+     * @return a new channel, positioned at the given offset (or at the end of
+     *         the content if it is shorter), to be closed by the caller
+     * @throws IOException if unable to open the source
+     */
+    public ReadableByteChannel open(long offset) throws IOException {
+        rawInput = null;
+        if (file == null) {
+            return openStream(openRaw(), offset);
+        }
+
+        FileInputStream input = new FileInputStream(file);
+        try {
+            FileChannel channel = input.getChannel();
+            ByteBuffer magic = ByteBuffer.allocate(4);
+            channel.read(magic, 0);
+            if (detectCompression(magic.array(), magic.position()) == COMPRESSION_NONE) {
+                compressed = false;
+                channel.position(offset);
+                return channel;
+            }
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+        return openStream(input, offset);
+    }
+
+    /**
+     * @return true if the content of the source is compressed (only known once
+     *         the source has been opened)
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return the number of raw bytes read by the last opened channel, when the
+     *         content is compressed (the offsets in the decompressed content
+     *         can't be compared to the length of the source)
+     */
+    public long getRawBytesRead() {
+        return rawInput != null ? rawInput.count : 0;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Open the content of the given raw stream, decompressed if needed, from
+     * the given offset.
+     * 
+     * @param input the raw stream (closed on error)
+     * @param offset in the decompressed content
+     * @return a new channel, positioned at the given offset
+     * @throws IOException if unable to read the stream
+     */
+    private ReadableByteChannel openStream(InputStream input, long offset) throws IOException {
+        try {
+            rawInput = new CountingInputStream(input);
+            InputStream buffered = new BufferedInputStream(rawInput, BUFFER_SIZE);
+            byte[] magic = new byte[4];
+            buffered.mark(magic.length);
+            int count = 0;
+            int read = 0;
+            while (count < magic.length && read >= 0) {
+                read = buffered.read(magic, count, magic.length - count);
+                count += Math.max(read, 0);
+            }
+            buffered.reset();
+
+            InputStream content = buffered;
+            int compression = detectCompression(magic, count);
+            if (compression == COMPRESSION_GZIP) {
+                content = new GZIPInputStream(buffered, BUFFER_SIZE);
+            } else if (compression == COMPRESSION_ZIP) {
+                content = openZipEntry(new ZipInputStream(buffered));
+            }
+            compressed = compression != COMPRESSION_NONE;
+            skip(content, offset);
+            return Channels.newChannel(content);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Position the given archive on its first CSV file
+     * 
+     * @param zip archive to read
+     * @return the archive, positioned on the CSV file
+     * @throws IOException if there is no CSV file in the archive
+     */
+    private static InputStream openZipEntry(ZipInputStream zip) throws IOException {
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            if (!entry.isDirectory() && entry.getName().toLowerCase().endsWith(".csv")) {
+                return zip;
+            }
+        }
+        throw new IOException("No CSV file in the archive");
+    }
+
+    /**
+     * Skip the given number of bytes of the given stream (or until its end)
+     * 
+     * @param input stream to read
+     * @param count number of bytes to skip
+     * @throws IOException if unable to read the stream
+     */
+    private static void skip(InputStream input, long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped = input.skip(count);
+            if (skipped <= 0) {
+                // some streams can't skip : read the bytes
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                skipped = input.read(buffer, 0, (int)Math.min(count, buffer.length));
+                if (skipped < 0) {
+                    return;
+                }
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * @param magic the first bytes of the content
+     * @param count number of bytes available
+     * @return the compression of the content
+     */
+    private static int detectCompression(byte[] magic, int count) {
+        if (count >= 2 && (magic[0] & 0xFF) == 0x1F && (magic[1] & 0xFF) == 0x8B) {
+            return COMPRESSION_GZIP;
+        }
+        if (count >= 4 && magic[0] == 'P' && magic[1] == 'K' && magic[2] == 3 && magic[3] == 4) {
+            return COMPRESSION_ZIP;
+        }
+        return COMPRESSION_NONE;
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * A stream counting the bytes read from the underlying stream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /** Number of bytes read (or skipped) */
+        long count;
+
+        CountingInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+}
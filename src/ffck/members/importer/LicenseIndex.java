@@ -0,0 +1,188 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+/**
+ * A compact map of the members codes to their last license year and import
+ * hash, used to classify the imported rows without querying the database for
+ * each of them. The codes are stored in an open-addressing table (linear
+ * probing), and the years and hashes in parallel arrays of primitives : no
+ * boxing, and no entry object per member.
+ */
+public class LicenseIndex {
+
+    /** Value returned by {@link #get(String)} for an unknown code */
+    public static final int MISSING = Integer.MIN_VALUE;
+
+    /** The codes, null for the free slots */
+    private String[] codes;
+
+    /** The license years, at the same index as their code */
+    private int[] licenses;
+
+    /** The import hashes (0 if unknown), at the same index as their code */
+    private long[] hashes;
+
+    /** Number of codes in the index */
+    private int size;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new index, sized for the given number of codes.
+     * 
+     * @param expectedSize number of codes expected in the index
+     */
+    public LicenseIndex(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        codes = new String[capacity];
+        licenses = new int[capacity];
+        hashes = new long[capacity];
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @param code of the member
+     * @return the last license year of the member, or {@link #MISSING}
+     */
+    public int get(String code) {
+        int i = find(code);
+        return i < 0 ? MISSING : licenses[i];
+    }
+
+    /**
+     * @param code of the member
+     * @return the import hash of the member, or 0 if unknown
+     */
+    public long getHash(String code) {
+        int i = find(code);
+        return i < 0 ? 0 : hashes[i];
+    }
+
+    /**
+     * Set the last license year and import hash of the given member.
+     * 
+     * @param code of the member
+     * @param license year
+     * @param hash of the imported values, 0 if unknown
+     */
+    public void put(String code, int license, long hash) {
+        if ((size + 1) * 2 > codes.length) {
+            grow();
+        }
+        int mask = codes.length - 1;
+        for (int i = indexFor(code, mask);; i = (i + 1) & mask) {
+            String existing = codes[i];
+            if (existing == null) {
+                codes[i] = code;
+                licenses[i] = license;
+                hashes[i] = hash;
+                size++;
+                return;
+            }
+            if (existing.equals(code)) {
+                licenses[i] = license;
+                hashes[i] = hash;
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of codes in the index
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Parse a license year, as stored in the database or read from the CSV
+     * file.
+     * 
+     * @param license year, may be null
+     * @return the year, or 0 if the given value is not a number (as
+     *         {@link android.database.Cursor#getInt(int)} does)
+     */
+    public static int parseLicense(String license) {
+        if (license == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(license.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * @param code of a member
+     * @param mask of the table size
+     * @return the first slot to probe for the given code
+     */
+    private static int indexFor(String code, int mask) {
+        int hash = code.hashCode();
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    /**
+     * @param code of a member
+     * @return the slot of the given code, or -1 if unknown
+     */
+    private int find(String code) {
+        int mask = codes.length - 1;
+        for (int i = indexFor(code, mask);; i = (i + 1) & mask) {
+            String existing = codes[i];
+            if (existing == null) {
+                return -1;
+            }
+            if (existing.equals(code)) {
+                return i;
+            }
+        }
+    }
+
+    /**
+     * Double the capacity of the table, and re-insert all the codes
+     */
+    private void grow() {
+        String[] oldCodes = codes;
+        int[] oldLicenses = licenses;
+        long[] oldHashes = hashes;
+        codes = new String[oldCodes.length * 2];
+        licenses = new int[oldCodes.length * 2];
+        hashes = new long[oldCodes.length * 2];
+        size = 0;
+        for (int i = 0; i < oldCodes.length; i++) {
+            if (oldCodes[i] != null) {
+                put(oldCodes[i], oldLicenses[i], oldHashes[i]);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import ffck.members.Member;
+
+/**
+ * A member read from a CSV file, with one slot per imported column (see
+ * {@link ColumnPlan#COLUMNS}). Unlike a {@link Member}, a record is not backed
+ * by a ContentValues : its values are stored in a plain array, so that it can
+ * be recycled from one row to the next, and bound directly to a compiled
+ * statement. A record should only be used by one thread at a time.<br />
+ * The record also keeps the raw fields of its CSV record (all of them, as
+ * read), so that a rejected row can be written back as it was in the file.
+ */
+public final class MemberRecord {
+
+    /** Slot of the member's code */
+    public static final int CODE_SLOT = ColumnPlan.indexOf(Member.CODE);
+
+    /** Slot of the member's last name */
+    public static final int LAST_NAME_SLOT = ColumnPlan.indexOf(Member.LAST_NAME);
+
+    /** Slot of the member's first name */
+    public static final int FIRST_NAME_SLOT = ColumnPlan.indexOf(Member.FIRST_NAME);
+
+    /** Slot of the member's last license */
+    public static final int LAST_LICENSE_SLOT = ColumnPlan.indexOf(Member.LAST_LICENSE);
+
+    /** FNV-1a 64 bits offset basis */
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    /** FNV-1a 64 bits prime */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The values, one per slot (null if the column is not imported) */
+    private final String[] values = new String[ColumnPlan.COLUMNS.length];
+
+    /** The hash of the values, or 0 if not computed yet */
+    private long importHash;
+
+    /** Number of the data record (in the CSV file) of this record */
+    private int row;
+
+    /** The raw fields of the CSV record, one after the other */
+    private String rawFields = "";
+
+    /** The end offset of each raw field in rawFields */
+    private int[] rawFieldEnds = new int[32];
+
+    /** Number of raw fields */
+    private int rawFieldCount;
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @return the array of the values, one per slot. It is filled in place by
+     *         {@link ColumnPlan#apply(CsvTokenizer, String[])}.
+     */
+    public String[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param slot of the column (see {@link ColumnPlan#COLUMNS})
+     * @return the value of the column, or null if it is not imported
+     */
+    public String get(int slot) {
+        return values[slot];
+    }
+
+    /**
+     * @return the code of the member, or null if not imported
+     */
+    public String getCode() {
+        return values[CODE_SLOT];
+    }
+
+    /**
+     * @return the last license of the member, or null if not imported
+     */
+    public String getLastLicense() {
+        return values[LAST_LICENSE_SLOT];
+    }
+
+    /**
+     * @return the number of the data record (in the CSV file, starting at 1
+     *         after the header) from which this record has been read
+     */
+    public int getRow() {
+        return row;
+    }
+
+    /**
+     * @param row number of the data record (in the CSV file, starting at 1
+     *            after the header) from which this record has been read
+     */
+    public void setRow(int row) {
+        this.row = row;
+    }
+
+    /**
+     * Replace the values of this record with a row previously stored in a
+     * larger array.
+     * 
+     * @param rows array holding the values of the row
+     * @param offset of the first value of the row in the array
+     */
+    public void copyFrom(String[] rows, int offset) {
+        System.arraycopy(rows, offset, values, 0, values.length);
+        importHash = 0;
+    }
+
+    /**
+     * Keep the raw fields of the current record of the given tokenizer (the
+     * one from which the values of this record have been read).
+     * 
+     * @param tokenizer positioned on the CSV record
+     */
+    public void setRawFields(CsvTokenizer tokenizer) {
+        int count = tokenizer.getFieldCount();
+        if (rawFieldEnds.length < count) {
+            rawFieldEnds = new int[count];
+        }
+        // the fields are contiguous in the record buffer
+        for (int i = 0; i < count; i++) {
+            rawFieldEnds[i] = tokenizer.getFieldStart(i) + tokenizer.getFieldLength(i);
+        }
+        rawFieldCount = count;
+        int length = count > 0 ? rawFieldEnds[count - 1] : 0;
+        rawFields = new String(tokenizer.getRecordBuffer(), 0, length);
+    }
+
+    /**
+     * Replace the raw fields of this record with the raw fields of a row
+     * previously stored in larger arrays.
+     * 
+     * @param fields the raw fields of the row, one after the other
+     * @param ends array holding the end offset of each field in the fields
+     * @param offset of the end of the first field in the array
+     * @param count number of fields
+     */
+    public void setRawFields(String fields, int[] ends, int offset, int count) {
+        if (rawFieldEnds.length < count) {
+            rawFieldEnds = new int[count];
+        }
+        System.arraycopy(ends, offset, rawFieldEnds, 0, count);
+        rawFieldCount = count;
+        rawFields = fields;
+    }
+
+    /**
+     * @return the raw fields of the CSV record, one after the other (see
+     *         {@link #getRawFieldEnd(int)})
+     */
+    public String getRawFields() {
+        return rawFields;
+    }
+
+    /**
+     * @return the number of fields of the CSV record
+     */
+    public int getRawFieldCount() {
+        return rawFieldCount;
+    }
+
+    /**
+     * @param index of the field in the CSV record
+     * @return the end offset of the raw field in {@link #getRawFields()}
+     */
+    public int getRawFieldEnd(int index) {
+        return rawFieldEnds[index];
+    }
+
+    /**
+     * @param index of the field in the CSV record
+     * @return the raw value of the field, as read
+     */
+    public String getRawField(int index) {
+        return rawFields.substring(index > 0 ? rawFieldEnds[index - 1] : 0, rawFieldEnds[index]);
+    }
+
+    /**
+     * @return a mask of the imported columns : bit i is set if the slot i has
+     *         a value
+     */
+    public int getColumnsMask() {
+        int mask = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                mask |= 1 << i;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Compute the hash (FNV-1a, 64 bits) of the values of this record, and
+     * keep it as its import hash.
+     * 
+     * @return the hash, never 0 (which means 'unknown')
+     */
+    public long computeHash() {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < values.length; i++) {
+            String value = values[i];
+            if (value == null) {
+                continue;
+            }
+            hash = (hash ^ i) * FNV_PRIME;
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                hash = (hash ^ (c & 0xFF)) * FNV_PRIME;
+                hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+            }
+            // separator, so that ("ab", "c") and ("a", "bc") differ
+            hash = (hash ^ 0xFF) * FNV_PRIME;
+        }
+        importHash = hash == 0 ? 1 : hash;
+        return importHash;
+    }
+
+    /**
+     * @return the import hash computed by {@link #computeHash()}, or 0
+     */
+    public long getImportHash() {
+        return importHash;
+    }
+
+}
@@ -0,0 +1,113 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+/**
+ * Normalizer for the names, cities and countries : every word is capitalized
+ * (first letter upper-cased, the others lower-cased). The words separators are
+ * looked up in a static table, and the result is built in a reusable buffer.<br />
+ * The same values (cities, common first names...) are repeated a lot in a club
+ * export, so the results are deduplicated through a small direct-mapped cache :
+ * a value already seen is returned without any allocation.
+ */
+public class NameCapitalizer implements FieldNormalizer {
+
+    /** Number of entries in the cache (must be a power of 2) */
+    private static final int CACHE_SIZE = 512;
+
+    /** Lookup table of the words separators (for ASCII chars only) */
+    private static final boolean[] SEPARATORS = new boolean[128];
+
+    /** The reusable output buffer */
+    private char[] output = new char[64];
+
+    /** The cache of the previous results, indexed by their hash */
+    private final String[] cache = new String[CACHE_SIZE];
+
+    /*
+     * Static initialization
+     */
+
+    static {
+        SEPARATORS[' '] = true;
+        SEPARATORS['-'] = true;
+        SEPARATORS['_'] = true;
+        SEPARATORS[','] = true;
+        SEPARATORS['.'] = true;
+    }
+
+    /*
+     * Business methods
+     */
+
+    @Override
+    public String normalize(char[] buffer, int start, int length) {
+        if (length == 0) {
+            return "";
+        }
+        if (length > output.length) {
+            output = new char[Math.max(length, output.length * 2)];
+        }
+
+        int hash = 0;
+        boolean needToUpperNext = true;
+        for (int i = 0; i < length; i++) {
+            char c = Character.toLowerCase(buffer[start + i]);
+            if (needToUpperNext) {
+                c = Character.toUpperCase(c);
+                needToUpperNext = false;
+            }
+            if (c < SEPARATORS.length && SEPARATORS[c]) {
+                needToUpperNext = true;
+            }
+            output[i] = c;
+            hash = 31 * hash + c;
+        }
+
+        int index = (hash ^ (hash >>> 16)) & (CACHE_SIZE - 1);
+        String cached = cache[index];
+        if (cached != null && matchesOutput(cached, length)) {
+            return cached;
+        }
+        String value = new String(output, 0, length);
+        cache[index] = value;
+        return value;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * @param value a previous result
+     * @param length number of chars in the output buffer
+     * @return true if the given value is equal to the content of the output
+     *         buffer
+     */
+    private boolean matchesOutput(String value, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) != output[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
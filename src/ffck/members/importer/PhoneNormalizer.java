@@ -0,0 +1,220 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Normalizer for the phone numbers : converts them in the E.164 international
+ * format (ie '+33612345678'), in a single pass over the raw chars and without
+ * any regular expression.<br />
+ * National numbers are converted using the rules (calling code and trunk
+ * prefix) of the member's country, which must be given with
+ * {@link #setCountry(String)} before normalizing the phone numbers of a row.
+ * A national number is only converted if it has the length of the numbers of
+ * the country : the short numbers (services...) and the truncated ones keep
+ * their digits as-is. Numbers already in international format ('+' or '00'
+ * prefix) are kept, and values that don't look like a phone number are
+ * returned as-is.
+ */
+public class PhoneNormalizer implements FieldNormalizer {
+
+    /** Rules for the members without a country (french club...) */
+    private static final Rule DEFAULT_RULE = new Rule("33", '0', 9, 9);
+
+    /** Per-country rules, indexed by the (capitalized) country name */
+    private static final Map<String, Rule> RULES = new HashMap<String, Rule>();
+
+    /** The reusable output buffer */
+    private char[] output = new char[32];
+
+    /** The rules for the current row (null if the country is unknown) */
+    private Rule rule = DEFAULT_RULE;
+
+    /** The country of the current row (used to skip the lookup) */
+    private String country;
+
+    /*
+     * Static initialization
+     */
+
+    static {
+        addRule(DEFAULT_RULE, "France");
+        addRule(new Rule("32", '0', 8, 9), "Belgique");
+        addRule(new Rule("41", '0', 9, 9), "Suisse");
+        addRule(new Rule("49", '0', 5, 12), "Allemagne");
+        addRule(new Rule("34", Rule.NO_TRUNK_PREFIX, 9, 9), "Espagne");
+        addRule(new Rule("39", Rule.NO_TRUNK_PREFIX, 6, 11), "Italie");
+        addRule(new Rule("352", Rule.NO_TRUNK_PREFIX, 4, 11), "Luxembourg");
+        addRule(new Rule("377", Rule.NO_TRUNK_PREFIX, 8, 9), "Monaco");
+        addRule(new Rule("44", '0', 9, 10), "Royaume-Uni", "Angleterre", "Grande Bretagne");
+        addRule(new Rule("31", '0', 9, 9), "Pays-Bas", "Hollande");
+        addRule(new Rule("351", Rule.NO_TRUNK_PREFIX, 9, 9), "Portugal");
+        addRule(new Rule("262", '0', 9, 9), "Reunion", "R\u00e9union", "La Reunion",
+                "La R\u00e9union", "Mayotte");
+        addRule(new Rule("590", '0', 9, 9), "Guadeloupe");
+        addRule(new Rule("594", '0', 9, 9), "Guyane");
+        addRule(new Rule("596", '0', 9, 9), "Martinique");
+        addRule(new Rule("687", Rule.NO_TRUNK_PREFIX, 6, 6), "Nouvelle-Caledonie",
+                "Nouvelle-Cal\u00e9donie");
+        addRule(new Rule("689", Rule.NO_TRUNK_PREFIX, 6, 8), "Polynesie", "Polyn\u00e9sie",
+                "Polynesie Francaise", "Polyn\u00e9sie Fran\u00e7aise");
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Set the country of the member whose phone numbers will be normalized
+     * next. An empty country means France, an unknown country means that the
+     * national numbers will not be converted.
+     * 
+     * @param country name of the country (capitalized), may be null
+     */
+    public void setCountry(String country) {
+        if (country == this.country) {
+            // the capitalizer returns the same instance for the same value
+            return;
+        }
+        this.country = country;
+        if (country == null || country.length() == 0) {
+            rule = DEFAULT_RULE;
+        } else {
+            rule = RULES.get(country);
+        }
+    }
+
+    @Override
+    public String normalize(char[] buffer, int start, int length) {
+        if (length + 4 > output.length) {
+            output = new char[length + 4];
+        }
+
+        int digits = 0;
+        int count = 0;
+        boolean international = false;
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            char c = buffer[i];
+            if (c >= '0' && c <= '9') {
+                output[count++] = c;
+                digits++;
+            } else if (c == '+' && digits == 0 && !international) {
+                international = true;
+            } else if (c != ' ' && c != '.' && c != '-' && c != '/' && c != '(' && c != ')') {
+                // not a phone number : keep the value as-is
+                return new String(buffer, start, length);
+            }
+        }
+        if (digits == 0) {
+            return new String(buffer, start, length).trim();
+        }
+
+        // '00' is the international call prefix
+        int offset = 0;
+        if (!international && digits > 2 && output[0] == '0' && output[1] == '0') {
+            international = true;
+            offset = 2;
+        }
+        if (international) {
+            return prefixed(null, offset, count);
+        }
+
+        // national number : use the country rules
+        if (rule == null) {
+            return new String(output, 0, count);
+        }
+        if (rule.trunkPrefix != Rule.NO_TRUNK_PREFIX && output[0] == rule.trunkPrefix) {
+            offset = 1;
+        }
+        if (count - offset < rule.minLength || count - offset > rule.maxLength) {
+            // short or truncated number : can't be called from abroad
+            return new String(output, 0, count);
+        }
+        return prefixed(rule.callingCode, offset, count);
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Register the given rule for the given countries
+     * 
+     * @param rule for the countries
+     * @param countries names (capitalized)
+     */
+    private static void addRule(Rule rule, String... countries) {
+        for (String country : countries) {
+            RULES.put(country, rule);
+        }
+    }
+
+    /**
+     * Build the international number from the digits in the output buffer
+     * 
+     * @param callingCode to insert after the '+' (may be null)
+     * @param offset of the first digit to keep in the output buffer
+     * @param count number of digits in the output buffer
+     * @return the international number
+     */
+    private String prefixed(String callingCode, int offset, int count) {
+        int codeLength = callingCode == null ? 0 : callingCode.length();
+        StringBuilder number = new StringBuilder(1 + codeLength + count - offset);
+        number.append('+');
+        if (callingCode != null) {
+            number.append(callingCode);
+        }
+        number.append(output, offset, count - offset);
+        return number.toString();
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * The phone numbering rules of a country
+     */
+    private static class Rule {
+
+        /** Marker for the countries without trunk prefix */
+        static final char NO_TRUNK_PREFIX = 0;
+
+        /** International calling code (without the '+') */
+        final String callingCode;
+
+        /** Trunk prefix of the national numbers, or NO_TRUNK_PREFIX */
+        final char trunkPrefix;
+
+        /** Minimum number of digits of a national number (without prefix) */
+        final int minLength;
+
+        /** Maximum number of digits of a national number (without prefix) */
+        final int maxLength;
+
+        Rule(String callingCode, char trunkPrefix, int minLength, int maxLength) {
+            this.callingCode = callingCode;
+            this.trunkPrefix = trunkPrefix;
+            this.minLength = minLength;
+            this.maxLength = maxLength;
+        }
+    }
+
+}
@@ -0,0 +1,220 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes the rows rejected by an import in a "quarantine" CSV file, with the
+ * reason of the rejection. The rows are written as they were read (all their
+ * raw fields, before any normalization), and the file has the same format as
+ * the imported file (same separator and header), plus the row number and the
+ * reason : once fixed, it can be imported again.<br />
+ * The file is only created when the first row is rejected. An error while
+ * writing it does not stop the import : the following rows are only counted.
+ */
+public class QuarantineWriter {
+
+    /** The CSV separator */
+    private static final char CSV_SEPARATOR = ';';
+
+    /** Header of the row number column */
+    private static final String ROW_HEADER = "ROW";
+
+    /** Header of the reason column */
+    private static final String REASON_HEADER = "REASON";
+
+    /** The quarantine file */
+    private final File file;
+
+    /** The CSV header of the imported file (null if unknown) */
+    private String[] header;
+
+    /** True to append to the file (resumed import), false to replace it */
+    private final boolean append;
+
+    /** The writer of the file (null until the first rejected row) */
+    private Writer writer;
+
+    /** Number of rows rejected */
+    private int rejectedCount;
+
+    /** True if the file could not be written */
+    private boolean failed;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new quarantine writer. Nothing is written until a row is
+     * rejected.
+     * 
+     * @param file the quarantine file
+     * @param append true to append the rows to the existing file (when an
+     *            import is resumed), false to replace it
+     */
+    public QuarantineWriter(File file, boolean append) {
+        this.file = file;
+        this.append = append;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Set the header of the imported file, written at the start of a new
+     * quarantine file. Must be called before the first row is rejected.
+     * 
+     * @param header the CSV header of the imported file, as read (may be null
+     *            if it could not be read)
+     */
+    public void setHeader(String[] header) {
+        this.header = header;
+    }
+
+    /**
+     * Write the given record in the quarantine file.
+     * 
+     * @param record the rejected record
+     * @param reason of the rejection
+     */
+    public void reject(MemberRecord record, String reason) {
+        rejectedCount++;
+        if (failed) {
+            return;
+        }
+        try {
+            if (writer == null) {
+                open();
+            }
+            int fieldCount = record.getRawFieldCount();
+            int columnCount = Math.max(fieldCount, header != null ? header.length : 0);
+            for (int i = 0; i < columnCount; i++) {
+                if (i < fieldCount) {
+                    writeField(record.getRawField(i));
+                }
+                writer.write(CSV_SEPARATOR);
+            }
+            writer.write(Integer.toString(record.getRow()));
+            writer.write(CSV_SEPARATOR);
+            writeField(reason);
+            writer.write("\r\n");
+        } catch (IOException e) {
+            failed = true;
+            close();
+        }
+    }
+
+    /**
+     * Flush and close the quarantine file (if it has been created)
+     */
+    public void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            failed = true;
+        }
+        writer = null;
+    }
+
+    /**
+     * @return the quarantine file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of rows rejected
+     */
+    public int getRejectedCount() {
+        return rejectedCount;
+    }
+
+    /**
+     * @return true if some rejected rows could not be written in the file
+     */
+    public boolean hasFailed() {
+        return failed;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Open the quarantine file, and write its header if it is a new file
+     * 
+     * @throws IOException if unable to open the file
+     */
+    private void open() throws IOException {
+        boolean newFile = !append || file.length() == 0;
+        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, !newFile),
+                "UTF-8"));
+        if (newFile) {
+            for (int i = 0; header != null && i < header.length; i++) {
+                writeField(header[i]);
+                writer.write(CSV_SEPARATOR);
+            }
+            writer.write(ROW_HEADER);
+            writer.write(CSV_SEPARATOR);
+            writer.write(REASON_HEADER);
+            writer.write("\r\n");
+        }
+    }
+
+    /**
+     * Write a CSV field, quoted if needed
+     * 
+     * @param value of the field (may be null)
+     * @throws IOException if unable to write in the file
+     */
+    private void writeField(String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean quoted = false;
+        for (int i = 0; i < value.length() && !quoted; i++) {
+            char c = value.charAt(i);
+            quoted = c == CSV_SEPARATOR || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quoted) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+}
@@ -0,0 +1,219 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import android.database.AbstractCursor;
+
+/**
+ * A cursor over the row of a single member, read from the {@link RowCache}
+ * (or loaded in it). It has no row if the member doesn't exist. The row is
+ * loaded again when the cursor is requeried.
+ */
+class CachedRowCursor extends AbstractCursor {
+
+    /** The provider loading the row */
+    private final MembersProvider provider;
+
+    /** The code of the member */
+    private final String code;
+
+    /** The names of the columns of the cursor */
+    private final String[] columnNames;
+
+    /** The index in the cached row of each column of the cursor */
+    private final int[] columnIndexes;
+
+    /** The row of the member (null if there is none) */
+    private String[] row;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new cursor, and load the row of the member
+     * 
+     * @param provider loading the row
+     * @param code of the member
+     * @param columnIndexes the index in the cached row of each column of the
+     *            cursor (see {@link MembersProvider#CACHED_COLUMNS})
+     */
+    CachedRowCursor(MembersProvider provider, String code, int[] columnIndexes) {
+        this.provider = provider;
+        this.code = code;
+        this.columnIndexes = columnIndexes;
+        columnNames = new String[columnIndexes.length];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            columnNames[i] = MembersProvider.CACHED_COLUMNS[columnIndexes[i]];
+        }
+        row = provider.loadRow(code);
+    }
+
+    /*
+     * Business methods
+     */
+
+    @Override
+    public boolean requery() {
+        row = provider.loadRow(code);
+        return super.requery();
+    }
+
+    @Override
+    public int getCount() {
+        return row != null ? 1 : 0;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return row[columnIndexes[column]];
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short)getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int)getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return toLong(getString(column));
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float)getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return toDouble(getString(column));
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getString(column) == null;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Convert a value to an integer, as SQLite does (the cursors of the
+     * database never fail on a text) : the integer at the start of the value
+     * (after spaces), saturated, and 0 if there is none.
+     * 
+     * @param value to convert (may be null)
+     * @return the integer value
+     */
+    static long toLong(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int i = skipSpaces(value, 0);
+        boolean negative = false;
+        if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            negative = value.charAt(i) == '-';
+            i++;
+        }
+        long result = 0;
+        for (; i < value.length() && isDigit(value.charAt(i)); i++) {
+            int digit = value.charAt(i) - '0';
+            if (result > (Long.MAX_VALUE - digit) / 10) {
+                return negative ? Long.MIN_VALUE : Long.MAX_VALUE;
+            }
+            result = result * 10 + digit;
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Convert a value to a real, as SQLite does : the number at the start of
+     * the value (after spaces), and 0 if there is none.
+     * 
+     * @param value to convert (may be null)
+     * @return the real value
+     */
+    static double toDouble(String value) {
+        if (value == null) {
+            return 0;
+        }
+        int start = skipSpaces(value, 0);
+        int i = start;
+        if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        int digits = 0;
+        for (; i < value.length() && isDigit(value.charAt(i)); i++) {
+            digits++;
+        }
+        if (i < value.length() && value.charAt(i) == '.') {
+            for (i++; i < value.length() && isDigit(value.charAt(i)); i++) {
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return 0;
+        }
+        int end = i;
+        if (i < value.length() && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < value.length() && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            if (i < value.length() && isDigit(value.charAt(i))) {
+                while (i < value.length() && isDigit(value.charAt(i))) {
+                    i++;
+                }
+                end = i;
+            }
+        }
+        return Double.parseDouble(value.substring(start, end));
+    }
+
+    /**
+     * @param value to scan
+     * @param start index in the value
+     * @return the index of the first character which is not a space, from
+     *         the start
+     */
+    private static int skipSpaces(String value, int start) {
+        while (start < value.length() && Character.isWhitespace(value.charAt(start))) {
+            start++;
+        }
+        return start;
+    }
+
+    /**
+     * @param c a character
+     * @return true if it is an ASCII digit
+     */
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+}
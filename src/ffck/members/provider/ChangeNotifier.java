@@ -0,0 +1,178 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import android.content.ContentResolver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Coalesces the change notifications of the provider : the changed URIs are
+ * collected during a short delay, and each one is notified once. A URI is not
+ * notified if one of its ancestors is (the watchers of the descendants of a
+ * URI are notified with it).<br />
+ * In quiet mode (see {@link #beginQuiet(Uri)}), the changes of the given URI
+ * are collected until the quiet mode ends : an import notifies its changes
+ * once, however many transactions it writes. The changes of the other URIs
+ * (such as a member edited meanwhile) are still notified after the delay.
+ * The notifier is thread-safe.
+ */
+class ChangeNotifier implements Runnable {
+
+    /** Delay during which the changes are collected, in ms */
+    private static final long NOTIFY_DELAY = 200;
+
+    /** The resolver through which the changes are notified */
+    private final ContentResolver resolver;
+
+    /** The handler on which the notifications are sent (main thread) */
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /** The changed URIs, not notified yet */
+    private final List<Uri> pendingUris = new ArrayList<Uri>();
+
+    /** The URIs in quiet mode, once per nested quiet mode */
+    private final List<Uri> quietUris = new ArrayList<Uri>();
+
+    /** True if the notification of the pending URIs is scheduled */
+    private boolean scheduled;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new notifier
+     * 
+     * @param resolver through which the changes are notified
+     */
+    ChangeNotifier(ContentResolver resolver) {
+        this.resolver = resolver;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Record the change of the given URI, to be notified after a short delay
+     * (or at the end of the quiet mode)
+     * 
+     * @param uri changed
+     */
+    synchronized void notifyChange(Uri uri) {
+        boolean quiet = quietUris.contains(uri);
+        for (Iterator<Uri> i = pendingUris.iterator(); i.hasNext();) {
+            Uri pendingUri = i.next();
+            if (quietUris.contains(pendingUri) != quiet) {
+                // not notified at the same time
+                continue;
+            }
+            if (covers(pendingUri, uri)) {
+                schedule();
+                return;
+            }
+            if (covers(uri, pendingUri)) {
+                i.remove();
+            }
+        }
+        pendingUris.add(uri);
+        schedule();
+    }
+
+    /**
+     * Begin a (nested) quiet mode on the given URI : its changes are not
+     * notified until the outermost quiet mode on it ends. The changes of its
+     * descendants are notified as usual.
+     * 
+     * @param uri whose changes are held
+     */
+    synchronized void beginQuiet(Uri uri) {
+        quietUris.add(uri);
+    }
+
+    /**
+     * End the current (nested) quiet mode on the given URI. When the
+     * outermost one ends, its changes are notified (after a short delay).
+     * 
+     * @param uri whose changes are held
+     */
+    synchronized void endQuiet(Uri uri) {
+        quietUris.remove(uri);
+        schedule();
+    }
+
+    /**
+     * Notify the pending URIs (on the main thread)
+     */
+    @Override
+    public void run() {
+        List<Uri> uris = new ArrayList<Uri>();
+        synchronized (this) {
+            scheduled = false;
+            // the URIs in quiet mode since are kept : endQuiet() schedules again
+            for (Iterator<Uri> i = pendingUris.iterator(); i.hasNext();) {
+                Uri uri = i.next();
+                if (!quietUris.contains(uri)) {
+                    uris.add(uri);
+                    i.remove();
+                }
+            }
+        }
+        for (Uri uri : uris) {
+            resolver.notifyChange(uri, null);
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Schedule the notification of the pending URIs, unless it is already
+     * scheduled, or they are all in quiet mode
+     */
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        for (Uri uri : pendingUris) {
+            if (!quietUris.contains(uri)) {
+                scheduled = handler.postDelayed(this, NOTIFY_DELAY);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @param uri notified
+     * @param otherUri to check
+     * @return true if the watchers of the other URI are notified with the
+     *         given one (same URI, or a descendant)
+     */
+    private static boolean covers(Uri uri, Uri otherUri) {
+        String path = uri.toString();
+        String otherPath = otherUri.toString();
+        return otherPath.equals(path) || otherPath.startsWith(path + "/");
+    }
+
+}
@@ -17,18 +17,29 @@
 package ffck.members.provider;
 
 import ffck.members.Member;
+import ffck.members.SearchKey;
+import ffck.members.SortKey;
+import ffck.members.importer.ImportManifest;
+import ffck.members.importer.MemberRecord;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
 import android.text.TextUtils;
 
+import java.util.ArrayList;
+
 /**
  * FFCK Members content provider.
  */
@@ -40,10 +51,81 @@ public class MembersProvider extends ContentProvider {
 
     private static final int MATCH_MEMBER = 2;
 
+    private static final int MATCH_SEARCH = 3;
+
     private static final String MEMBERS_TABLE = "members";
 
+    /** The full-text index of the members (FTS3), by member _id (docid) */
+    private static final String SEARCH_TABLE = "members_fts";
+
+    /** Column of the search table : the search keys of the names */
+    private static final String SEARCH_NAMES = "names";
+
+    /** Column of the search table : address, postal code and city */
+    private static final String SEARCH_PLACE = "place";
+
+    /** Column of the search table : the emails */
+    private static final String SEARCH_EMAILS = "emails";
+
+    /**
+     * The ranking of the search results : the number of matches (offsets()
+     * returns 4 integers per match, separated by spaces)
+     */
+    private static final String SEARCH_RANK = "(length(offsets(" + SEARCH_TABLE
+            + ")) - length(replace(offsets(" + SEARCH_TABLE + "), ' ', '')) + 1) / 4";
+
+    /** The columns of the members which have a search key */
+    private static final String[] KEY_SOURCE_COLUMNS = {
+            Member.LAST_NAME, Member.FIRST_NAME, Member.ADDRESS, Member.CITY, Member.EMAIL,
+            Member.EMAIL_2
+    };
+
+    /** The search key column of each column of KEY_SOURCE_COLUMNS */
+    private static final String[] KEY_COLUMNS = {
+            Member.LAST_NAME_KEY, Member.FIRST_NAME_KEY, Member.ADDRESS_KEY, Member.CITY_KEY,
+            Member.EMAIL_KEY, Member.EMAIL_2_KEY
+    };
+
+    /** Maximum number of member rows in the cache */
+    private static final int ROW_CACHE_SIZE = 64;
+
+    /**
+     * The API level of the platform (Build.VERSION.SDK_INT only exists from
+     * API level 4)
+     */
+    static final int SDK_VERSION = Integer.parseInt(Build.VERSION.SDK);
+
+    /**
+     * The columns of the cached member rows : all the columns, but the search
+     * and sort keys (internal to the provider)
+     */
+    static final String[] CACHED_COLUMNS = {
+            Member.ID, Member.CODE, Member.FIRST_NAME, Member.LAST_NAME, Member.BIRTH_DATE,
+            Member.GENDER, Member.ADDRESS, Member.POSTAL_CODE, Member.CITY, Member.COUNTRY,
+            Member.PHONE_HOME, Member.PHONE_OTHER, Member.PHONE_MOBILE, Member.PHONE_MOBILE_2,
+            Member.EMAIL, Member.EMAIL_2, Member.LAST_LICENSE, Member.IMPORT_HASH
+    };
+
+    /**
+     * The cache of the rows of the members, by code : the lookups of a member
+     * (details view) don't query the database while its row is cached. Shared
+     * like the database helper, and kept up to date by all the writes.
+     */
+    private static final RowCache ROW_CACHE = new RowCache(ROW_CACHE_SIZE);
+
+    /** The database helper shared by the provider and the direct writes */
+    private static DatabaseHelper sharedHelper;
+
+    /** The notifier of the changes, shared like the database helper */
+    private static ChangeNotifier sharedNotifier;
+
     private DatabaseHelper dbHelper;
 
+    private ChangeNotifier notifier;
+
+    /** The write batch in progress on each thread (if any) */
+    private final ThreadLocal<WriteBatch> batches = new ThreadLocal<WriteBatch>();
+
     /*
      * static initialization
      */
@@ -52,6 +134,7 @@ public class MembersProvider extends ContentProvider {
         URI_MATCHER = new UriMatcher(UriMatcher.NO_MATCH);
         URI_MATCHER.addURI("ffck.members", "members", MATCH_MEMBERS);
         URI_MATCHER.addURI("ffck.members", "members/*", MATCH_MEMBER);
+        URI_MATCHER.addURI("ffck.members", "members/search/*", MATCH_SEARCH);
     }
 
     /*
@@ -60,36 +143,157 @@ public class MembersProvider extends ContentProvider {
 
     @Override
     public boolean onCreate() {
-        dbHelper = new DatabaseHelper(getContext());
+        dbHelper = getDatabaseHelper(getContext());
+        notifier = getChangeNotifier(getContext());
         return true;
     }
 
+    /**
+     * Insert or update (by code) the members of the given records, in a single
+     * transaction. This is the write path of the imports : the records are
+     * bound directly to compiled statements, without building a ContentValues
+     * per member (which {@link #bulkInsert(Uri, ContentValues[])} requires).
+     * The watchers are notified at the end of the transaction (or at the end
+     * of the quiet mode, see {@link #beginQuiet(Context, Uri)}).
+     * 
+     * @param context of the application (the provider runs in its process)
+     * @param records of the members, with their code and import hash
+     * @param count number of records to write (from the start of the array)
+     * @return the number of records written
+     */
+    public static int upsertRecords(Context context, MemberRecord[] records, int count) {
+        SQLiteDatabase db = getDatabaseHelper(context).getWritableDatabase();
+        WriteBatch batch = new WriteBatch(db, MEMBERS_TABLE, ROW_CACHE);
+        boolean success = false;
+        try {
+            for (int i = 0; i < count; i++) {
+                batch.upsertRecord(records[i]);
+            }
+            success = true;
+        } finally {
+            batch.exit(success);
+        }
+        if (batch.hasChanged()) {
+            getChangeNotifier(context).notifyChange(Member.CONTENT_URI);
+        }
+        return count;
+    }
+
+    /**
+     * Checkpoint the log of the database (in write-ahead logging mode), after
+     * a large write such as an import : the log is kept small, and the
+     * following queries don't have to search it.
+     * 
+     * @param context of the application (the provider runs in its process)
+     */
+    public static void checkpoint(Context context) {
+        DatabaseHelper helper = getDatabaseHelper(context);
+        helper.checkpoint(helper.getWritableDatabase());
+    }
+
+    /**
+     * Begin a (nested) quiet mode on the given URI : its changes are not
+     * notified until the outermost quiet mode on it ends, and then only once.
+     * The changes of the other URIs (such as a single member) are notified as
+     * usual. Each call must be followed by a call to
+     * {@link #endQuiet(Context, Uri)}.
+     * 
+     * @param context of the application (the provider runs in its process)
+     * @param uri whose changes are held, such as {@link Member#CONTENT_URI}
+     *            for an import
+     */
+    public static void beginQuiet(Context context, Uri uri) {
+        getChangeNotifier(context).beginQuiet(uri);
+    }
+
+    /**
+     * End the current (nested) quiet mode on the given URI : when the
+     * outermost one ends, its changes are notified.
+     * 
+     * @param context of the application (the provider runs in its process)
+     * @param uri whose changes are held
+     */
+    public static void endQuiet(Context context, Uri uri) {
+        getChangeNotifier(context).endQuiet(uri);
+    }
+
+    /**
+     * @return the number of lookups of a member found in the row cache
+     */
+    public static long getRowCacheHitCount() {
+        return ROW_CACHE.getHitCount();
+    }
+
+    /**
+     * @return the number of lookups of a member not found in the row cache
+     *         (read from the database)
+     */
+    public static long getRowCacheMissCount() {
+        return ROW_CACHE.getMissCount();
+    }
+
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
             String orderBy) {
         SQLiteQueryBuilder queryBuilder = new SQLiteQueryBuilder();
         queryBuilder.setTables(MEMBERS_TABLE);
 
+        // if no sort order is specified use the default
+        if (TextUtils.isEmpty(orderBy)) {
+            orderBy = Member.DEFAULT_ORDER_BY;
+        }
+
+        String limit = null;
         switch (URI_MATCHER.match(uri)) {
             case MATCH_MEMBERS:
+                // keyset pagination : the members after the given one
+                limit = uri.getQueryParameter(Member.LIMIT_PARAMETER);
+                if (limit != null && (limit.length() == 0 || !TextUtils.isDigitsOnly(limit))) {
+                    throw new IllegalArgumentException("Invalid limit " + limit);
+                }
+                String after = uri.getQueryParameter(Member.AFTER_PARAMETER);
+                if (after != null) {
+                    String keyset = buildKeysetCondition(orderBy);
+                    queryBuilder.appendWhere(keyset);
+                    for (int i = keyset.indexOf('?'); i >= 0; i = keyset.indexOf('?', i + 1)) {
+                        selectionArgs = safePrepend(after, selectionArgs);
+                    }
+                }
                 break;
             case MATCH_MEMBER:
+                int[] columnIndexes = selection == null ? cachedColumnIndexes(projection) : null;
+                if (columnIndexes != null) {
+                    // plain lookup of a member : read from the row cache
+                    Cursor cursor = new CachedRowCursor(this, uri.getLastPathSegment(),
+                            columnIndexes);
+                    cursor.setNotificationUri(getContext().getContentResolver(), uri);
+                    return cursor;
+                }
                 queryBuilder.appendWhere(Member.CODE + "=?");
                 selectionArgs = safePrepend(uri.getLastPathSegment(), selectionArgs);
                 break;
+            case MATCH_SEARCH:
+                queryBuilder.setTables(MEMBERS_TABLE + " JOIN " + SEARCH_TABLE + " ON ("
+                        + MEMBERS_TABLE + "." + Member.ID + "=" + SEARCH_TABLE + ".docid)");
+                String match = buildMatchExpression(uri.getLastPathSegment());
+                if (match == null) {
+                    // no word to search : no result
+                    queryBuilder.appendWhere("0");
+                } else {
+                    queryBuilder.appendWhere(SEARCH_TABLE + " MATCH ?");
+                    selectionArgs = safePrepend(match, selectionArgs);
+                }
+                // the best matches first, then in the requested order
+                orderBy = SEARCH_RANK + " DESC, " + orderBy;
+                break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        // if no sort order is specified use the default
-        if (TextUtils.isEmpty(orderBy)) {
-            orderBy = Member.DEFAULT_ORDER_BY;
-        }
-
         // run the query and return the results as a Cursor
         SQLiteDatabase db = dbHelper.getReadableDatabase();
         Cursor cursor = queryBuilder.query(db, projection, selection, selectionArgs, null, null,
-                orderBy);
+                orderBy, limit);
         cursor.setNotificationUri(getContext().getContentResolver(), uri);
         return cursor;
     }
@@ -101,6 +305,8 @@ public class MembersProvider extends ContentProvider {
                 return "vnd.android.cursor.dir/vnd.ffck.member";
             case MATCH_MEMBER:
                 return "vnd.android.cursor.item/vnd.ffck.member";
+            case MATCH_SEARCH:
+                return "vnd.android.cursor.dir/vnd.ffck.member";
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
@@ -114,17 +320,69 @@ public class MembersProvider extends ContentProvider {
         }
 
         // Insert into database
+        values = withKeys(markModified(values));
+        Uri newUri = Uri.withAppendedPath(Member.CONTENT_URI, uri.getLastPathSegment());
+        WriteBatch batch = batches.get();
+        if (batch != null) {
+            // watchers will be notified at the end of the batch
+            batch.insert(values);
+            return newUri;
+        }
         dbHelper.getWritableDatabase().insertOrThrow(MEMBERS_TABLE, null, values);
+        ROW_CACHE.remove(uri.getLastPathSegment());
 
         // Notify any watchers of the change
-        Uri newUri = Uri.withAppendedPath(Member.CONTENT_URI, uri.getLastPathSegment());
-        getContext().getContentResolver().notifyChange(newUri, null);
+        notifier.notifyChange(newUri);
         return newUri;
     }
 
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        // Validate the requested URI
+        if (URI_MATCHER.match(uri) != MATCH_MEMBERS) {
+            throw new IllegalArgumentException("Unknown URI " + uri);
+        }
+
+        // Insert (or update) all the rows in a single transaction
+        boolean upsert = uri.getQueryParameter(Member.UPSERT_PARAMETER) != null;
+        WriteBatch batch = beginBatch();
+        boolean success = false;
+        try {
+            for (ContentValues rowValues : values) {
+                rowValues = withKeys(markModified(rowValues));
+                if (upsert) {
+                    batch.upsertByCode(rowValues);
+                } else {
+                    batch.insert(rowValues);
+                }
+            }
+            success = true;
+        } finally {
+            endBatch(batch, success);
+        }
+        return values.length;
+    }
+
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        // Apply all the operations in a single transaction
+        WriteBatch batch = beginBatch();
+        boolean success = false;
+        try {
+            ContentProviderResult[] results = super.applyBatch(operations);
+            success = true;
+            return results;
+        } finally {
+            endBatch(batch, success);
+        }
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        WriteBatch batch = batches.get();
+        new ImportManifest(getContext()).clear();
         int count = 0;
 
         switch (URI_MATCHER.match(uri)) {
@@ -140,31 +398,45 @@ public class MembersProvider extends ContentProvider {
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        // Notify any watchers of the change
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Remove the cached rows, and notify any watchers of the change (at the
+        // end of the batch, if any)
+        markChanged(uri, batch);
+        if (batch == null) {
+            notifier.notifyChange(uri);
+        }
         return count;
     }
 
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
         SQLiteDatabase db = dbHelper.getWritableDatabase();
+        WriteBatch batch = batches.get();
+        values = withKeys(markModified(values));
         int count = 0;
 
         switch (URI_MATCHER.match(uri)) {
             case MATCH_MEMBERS:
                 count = db.update(MEMBERS_TABLE, values, selection, selectionArgs);
+                markChanged(uri, batch);
                 break;
             case MATCH_MEMBER:
-                count = db.update(MEMBERS_TABLE, values, Member.CODE + "=?", new String[] {
-                    uri.getLastPathSegment()
-                });
+                if (batch != null && selection == null) {
+                    count = batch.updateByCode(values, uri.getLastPathSegment());
+                } else {
+                    count = db.update(MEMBERS_TABLE, values, Member.CODE + "=?", new String[] {
+                        uri.getLastPathSegment()
+                    });
+                    markChanged(uri, batch);
+                }
                 break;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri);
         }
 
-        // Notify any watchers of the change
-        getContext().getContentResolver().notifyChange(uri, null);
+        // Notify any watchers of the change (at the end of the batch, if any)
+        if (batch == null) {
+            notifier.notifyChange(uri);
+        }
         return count;
     }
 
@@ -172,6 +444,281 @@ public class MembersProvider extends ContentProvider {
      * Helper methods
      */
 
+    /**
+     * Begin a write batch on the current thread (or enter the batch already in
+     * progress).
+     * 
+     * @return the batch of the current thread
+     */
+    private WriteBatch beginBatch() {
+        WriteBatch batch = batches.get();
+        if (batch != null) {
+            batch.enter();
+            return batch;
+        }
+        batch = new WriteBatch(dbHelper.getWritableDatabase(), MEMBERS_TABLE, ROW_CACHE);
+        batches.set(batch);
+        return batch;
+    }
+
+    /**
+     * End the given write batch. When the outermost batch ends, its
+     * transaction is committed (if successful) and the watchers are notified
+     * once.
+     * 
+     * @param batch to end
+     * @param success true if all the writes of the batch have been successful
+     */
+    private void endBatch(WriteBatch batch, boolean success) {
+        if (batch.exit(success)) {
+            batches.set(null);
+            if (batch.hasChanged()) {
+                notifier.notifyChange(Member.CONTENT_URI);
+            }
+        }
+    }
+
+    /**
+     * Record that the member(s) of the given URI have been written outside of
+     * the compiled statements of the batch : their rows are removed from the
+     * cache (and once again at the end of the batch, if any).
+     * 
+     * @param uri of the member, or of the members
+     * @param batch in progress on the current thread, or null
+     */
+    private static void markChanged(Uri uri, WriteBatch batch) {
+        boolean member = URI_MATCHER.match(uri) == MATCH_MEMBER;
+        if (batch == null) {
+            if (member) {
+                ROW_CACHE.remove(uri.getLastPathSegment());
+            } else {
+                ROW_CACHE.clear();
+            }
+        } else if (member) {
+            batch.markChanged(uri.getLastPathSegment());
+        } else {
+            batch.markChanged();
+        }
+    }
+
+    /**
+     * Load the row of a member, from the cache or else from the database (and
+     * then cache it).
+     * 
+     * @param code of the member
+     * @return the values of the columns of {@link #CACHED_COLUMNS}, or null if
+     *         there is no such member
+     */
+    String[] loadRow(String code) {
+        String[] row = ROW_CACHE.get(code);
+        if (row != null) {
+            return row;
+        }
+        long stamp = ROW_CACHE.getInvalidationCount();
+        Cursor cursor = dbHelper.getReadableDatabase().query(MEMBERS_TABLE, CACHED_COLUMNS,
+                Member.CODE + "=?", new String[] {
+                    code
+                }, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            row = new String[CACHED_COLUMNS.length];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = cursor.getString(i);
+            }
+        } finally {
+            cursor.close();
+        }
+        ROW_CACHE.put(code, row, stamp);
+        return row;
+    }
+
+    /**
+     * @param projection of a query (null for all the columns)
+     * @return the index in {@link #CACHED_COLUMNS} of each column of the
+     *         projection, or null if some columns are not cached
+     */
+    private static int[] cachedColumnIndexes(String[] projection) {
+        if (projection == null) {
+            projection = CACHED_COLUMNS;
+        }
+        int[] indexes = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            indexes[i] = -1;
+            for (int j = 0; j < CACHED_COLUMNS.length && indexes[i] < 0; j++) {
+                if (CACHED_COLUMNS[j].equals(projection[i])) {
+                    indexes[i] = j;
+                }
+            }
+            if (indexes[i] < 0) {
+                return null;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Mark the member written with the given values as modified outside of an
+     * import, if the values don't come from an import (without import hash) :
+     * its import hash is reset, and the manifest of the last imported file is
+     * cleared.
+     * 
+     * @param values written
+     * @return the values to write
+     */
+    private ContentValues markModified(ContentValues values) {
+        if (values.containsKey(Member.IMPORT_HASH)) {
+            return values;
+        }
+        new ImportManifest(getContext()).clear();
+        ContentValues newValues = new ContentValues(values);
+        newValues.putNull(Member.IMPORT_HASH);
+        return newValues;
+    }
+
+    /**
+     * Build the keyset condition of a page : the rows
+     * after the member with a given code, in the given order. The values of
+     * the sort columns of that member are read by sub-queries (evaluated
+     * once), and the first column is also compared on its own, so that the
+     * index of the order is searched from the member instead of scanned :<br />
+     * a &gt;= A AND (a &gt; A OR (a = A AND (b &gt; B OR (b = B AND code &gt;
+     * C))))
+     * 
+     * @param orderBy of the query : columns, each ASC or DESC, ending with the
+     *            code (which makes the order total)
+     * @return the WHERE condition, whose parameters are all to be bound to the
+     *         code of the member
+     * @throws IllegalArgumentException if the order is not supported
+     */
+    static String buildKeysetCondition(String orderBy) {
+        String[] terms = orderBy.split(",");
+        String[] columns = new String[terms.length];
+        boolean[] descending = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            String[] words = terms[i].trim().split("\\s+");
+            columns[i] = words[0];
+            descending[i] = words.length > 1 && "DESC".equalsIgnoreCase(words[1]);
+            if (words.length > 2 || !columns[i].matches("\\w+")) {
+                throw new IllegalArgumentException("Unsupported order for a page " + orderBy);
+            }
+        }
+        if (!Member.CODE.equals(columns[columns.length - 1])) {
+            throw new IllegalArgumentException("The order of a page must end with the code");
+        }
+
+        StringBuilder where = new StringBuilder();
+        where.append(columns[0]).append(descending[0] ? " <= " : " >= ");
+        where.append(keysetValue(columns[0])).append(" AND ");
+        for (int i = 0; i < columns.length; i++) {
+            String value = keysetValue(columns[i]);
+            where.append("(").append(columns[i]).append(descending[i] ? " < " : " > ");
+            where.append(value);
+            if (i < columns.length - 1) {
+                where.append(" OR (").append(columns[i]).append(" = ").append(value);
+                where.append(" AND ");
+            }
+        }
+        for (int i = 0; i < columns.length; i++) {
+            where.append(i < columns.length - 1 ? "))" : ")");
+        }
+        return where.toString();
+    }
+
+    /**
+     * @param column of the members table
+     * @return the sub-query of the value of the column for the member with a
+     *         given code (bound as parameter)
+     */
+    private static String keysetValue(String column) {
+        return "(SELECT " + column + " FROM " + MEMBERS_TABLE + " WHERE " + Member.CODE + "=?)";
+    }
+
+    /**
+     * Build the FTS MATCH expression of a search : every word of the query
+     * (letters and digits) is a prefix, of its search key (see
+     * {@link SearchKey}) as all the columns are indexed by their search keys.
+     * The words are only joined by spaces (implicit AND), which mean the same
+     * with the standard and the enhanced query syntaxes of FTS.
+     * 
+     * @param query typed by the user
+     * @return the MATCH expression, or null if the query has no word
+     */
+    static String buildMatchExpression(String query) {
+        StringBuilder match = new StringBuilder();
+        int start = -1;
+        for (int i = 0; i <= query.length(); i++) {
+            boolean wordChar = i < query.length() && Character.isLetterOrDigit(query.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (match.length() > 0) {
+                    match.append(' ');
+                }
+                match.append(SearchKey.fold(query.substring(start, i))).append('*');
+                start = -1;
+            }
+        }
+        return match.length() > 0 ? match.toString() : null;
+    }
+
+    /**
+     * Add the search keys (and the sort keys of the names) of the written
+     * columns to the given values (if they hold some of these columns).
+     * 
+     * @param values written
+     * @return the values to write
+     */
+    private static ContentValues withKeys(ContentValues values) {
+        ContentValues newValues = null;
+        for (int i = 0; i < KEY_SOURCE_COLUMNS.length; i++) {
+            if (values.containsKey(KEY_SOURCE_COLUMNS[i])) {
+                if (newValues == null) {
+                    newValues = new ContentValues(values);
+                }
+                String value = values.getAsString(KEY_SOURCE_COLUMNS[i]);
+                newValues.put(KEY_COLUMNS[i], SearchKey.fold(value));
+            }
+        }
+        if (newValues == null) {
+            return values;
+        }
+        if (values.containsKey(Member.LAST_NAME)) {
+            newValues.put(Member.LAST_NAME_SORT,
+                    SortKey.of(values.getAsString(Member.LAST_NAME)));
+        }
+        if (values.containsKey(Member.FIRST_NAME)) {
+            newValues.put(Member.FIRST_NAME_SORT,
+                    SortKey.of(values.getAsString(Member.FIRST_NAME)));
+        }
+        return newValues;
+    }
+
+    /**
+     * @param context of the application
+     * @return the database helper of the process (created on first use)
+     */
+    private static synchronized DatabaseHelper getDatabaseHelper(Context context) {
+        if (sharedHelper == null) {
+            sharedHelper = new DatabaseHelper(context.getApplicationContext());
+        }
+        return sharedHelper;
+    }
+
+    /**
+     * @param context of the application
+     * @return the notifier of the changes of the process (created on first
+     *         use)
+     */
+    private static synchronized ChangeNotifier getChangeNotifier(Context context) {
+        if (sharedNotifier == null) {
+            sharedNotifier = new ChangeNotifier(context.getApplicationContext()
+                    .getContentResolver());
+        }
+        return sharedNotifier;
+    }
+
     /**
      * Prepend the given newValue to the given array.
      * 
@@ -202,13 +749,135 @@ public class MembersProvider extends ContentProvider {
 
     /**
      * Helper class for working with the FFCK Members database (creating,
-     * upgrading and opening it).
+     * upgrading and opening it).<br />
+     * The schema is versioned : each change is a {@link Migration} to a new
+     * version. A new database is created with the initial schema (version 1),
+     * and then migrated like an existing one, so that both always end up with
+     * the same schema. The migrations are applied in the transaction opened by
+     * SQLiteOpenHelper : if one of them fails, the database keeps its previous
+     * version and schema, and the upgrade is retried at the next opening.<br />
+     * When the platform supports it (Honeycomb and later), the database runs
+     * in write-ahead logging mode : the queries of the list read the last
+     * committed state on their own connections, while an import writes its
+     * transactions. The log is checkpointed automatically by the framework,
+     * and after each import (see {@link MembersProvider#checkpoint(Context)}).
      */
-    private class DatabaseHelper extends SQLiteOpenHelper {
+    private static class DatabaseHelper extends SQLiteOpenHelper {
 
         private static final String DATABASE_NAME = "members.db";
 
-        private static final int DATABASE_VERSION = 1;
+        /** Size of the page cache of the primary connection, in bytes */
+        private static final long CACHE_SIZE = 2 * 1024 * 1024;
+
+        /** The migrations, in increasing version order */
+        private static final Migration[] MIGRATIONS = {
+                new Migration(2) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // import hash of each member (incremental imports)
+                        db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN "
+                                + Member.IMPORT_HASH + " INTEGER");
+                    }
+                }, new Migration(3) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // the sort orders of the list (by name)
+                        createIndex(db, Member.LAST_NAME);
+                        createIndex(db, Member.FIRST_NAME);
+                        // the same sort orders, filtered on a license year :
+                        // also used for the lookups on the license alone
+                        createIndex(db, Member.LAST_LICENSE, Member.LAST_NAME);
+                        createIndex(db, Member.LAST_LICENSE, Member.FIRST_NAME);
+                    }
+                }, new Migration(4) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // search keys of the names (prefix search)
+                        db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN "
+                                + Member.LAST_NAME_KEY + " TEXT");
+                        db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN "
+                                + Member.FIRST_NAME_KEY + " TEXT");
+                        fillSearchKeys(db, new String[] {
+                                Member.LAST_NAME, Member.FIRST_NAME
+                        }, new String[] {
+                                Member.LAST_NAME_KEY, Member.FIRST_NAME_KEY
+                        });
+                        createIndex(db, Member.LAST_NAME_KEY);
+                        createIndex(db, Member.FIRST_NAME_KEY);
+                    }
+                }, new Migration(5) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // full-text index of the members, kept in sync by
+                        // triggers (see Member.SEARCH_URI)
+                        db.execSQL("CREATE VIRTUAL TABLE " + SEARCH_TABLE + " USING fts3("
+                                + SEARCH_NAMES + ", " + SEARCH_PLACE + ", " + SEARCH_EMAILS
+                                + ")");
+                        indexSearchColumns(db, new String[] {
+                                Member.LAST_NAME_KEY, Member.FIRST_NAME_KEY
+                        }, new String[] {
+                                Member.ADDRESS, Member.POSTAL_CODE, Member.CITY
+                        }, new String[] {
+                                Member.EMAIL, Member.EMAIL_2
+                        });
+                    }
+                }, new Migration(6) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // sort keys of the names (French order)
+                        db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN "
+                                + Member.LAST_NAME_SORT + " BLOB");
+                        db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN "
+                                + Member.FIRST_NAME_SORT + " BLOB");
+                        fillSortKeys(db);
+                        // the sort orders of the list now use the sort keys
+                        dropIndex(db, Member.LAST_NAME);
+                        dropIndex(db, Member.FIRST_NAME);
+                        dropIndex(db, Member.LAST_LICENSE, Member.LAST_NAME);
+                        dropIndex(db, Member.LAST_LICENSE, Member.FIRST_NAME);
+                        createIndex(db, Member.LAST_NAME_SORT, Member.FIRST_NAME_SORT,
+                                Member.CODE);
+                        createIndex(db, Member.FIRST_NAME_SORT, Member.LAST_NAME_SORT,
+                                Member.CODE);
+                        createIndex(db, Member.LAST_LICENSE, Member.LAST_NAME_SORT,
+                                Member.FIRST_NAME_SORT, Member.CODE);
+                        createIndex(db, Member.LAST_LICENSE, Member.FIRST_NAME_SORT,
+                                Member.LAST_NAME_SORT, Member.CODE);
+                    }
+                }, new Migration(7) {
+                    @Override
+                    void apply(SQLiteDatabase db) {
+                        // search keys of the other searched columns : the FTS
+                        // tokenizer only folds the case of the ASCII letters
+                        String[] sources = {
+                                Member.ADDRESS, Member.CITY, Member.EMAIL, Member.EMAIL_2
+                        };
+                        String[] keys = {
+                                Member.ADDRESS_KEY, Member.CITY_KEY, Member.EMAIL_KEY,
+                                Member.EMAIL_2_KEY
+                        };
+                        for (String key : keys) {
+                            db.execSQL("ALTER TABLE " + MEMBERS_TABLE + " ADD COLUMN " + key
+                                    + " TEXT");
+                        }
+                        fillSearchKeys(db, sources, keys);
+                        indexSearchColumns(db, new String[] {
+                                Member.LAST_NAME_KEY, Member.FIRST_NAME_KEY
+                        }, new String[] {
+                                Member.ADDRESS_KEY, Member.POSTAL_CODE, Member.CITY_KEY
+                        }, new String[] {
+                                Member.EMAIL_KEY, Member.EMAIL_2_KEY
+                        });
+                    }
+                }
+        };
+
+
+        /** The current version : the version of the last migration */
+        private static final int DATABASE_VERSION = MIGRATIONS[MIGRATIONS.length - 1].version;
+
+        /** True if the database runs in write-ahead logging mode */
+        private boolean writeAheadLogging;
 
         /**
          * Build a new DatabaseHelper instance for the given context
@@ -221,6 +890,7 @@ public class MembersProvider extends ContentProvider {
 
         @Override
         public void onCreate(SQLiteDatabase db) {
+            // initial schema (version 1)
             StringBuilder sql = new StringBuilder();
             sql.append("CREATE TABLE IF NOT EXISTS ").append(MEMBERS_TABLE).append(" (");
             sql.append(Member.ID).append(" INTEGER PRIMARY KEY AUTOINCREMENT, ");
@@ -242,13 +912,289 @@ public class MembersProvider extends ContentProvider {
             sql.append(Member.LAST_LICENSE).append(" TEXT");
             sql.append(");");
             db.execSQL(sql.toString());
+
+            migrate(db, 1, DATABASE_VERSION);
         }
 
         @Override
         public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-            // This is the first version, we have nothing to do here...
+            migrate(db, oldVersion, newVersion);
+        }
+
+        @Override
+        public void onConfigure(SQLiteDatabase db) {
+            // Jelly Bean and later only : called before the creation, upgrade
+            // and opening of the database, on its primary connection
+            if (db.isReadOnly()) {
+                return;
+            }
+            writeAheadLogging = db.enableWriteAheadLogging();
+            // in a transaction : the statements keep the primary connection
+            // (a read-only statement may run on a connection of the pool).
+            // The framework sets the synchronous mode, the automatic
+            // checkpoints and the log size limit of every connection.
+            db.beginTransaction();
+            try {
+                setCacheSize(db);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            if (db.isReadOnly() || SDK_VERSION >= Build.VERSION_CODES.JELLY_BEAN) {
+                // read-only, or configured by onConfigure()
+                return;
+            }
+            // before Jelly Bean, all the statements but the SELECTs run on the
+            // primary connection, through which all the writes go
+            if (SDK_VERSION >= Build.VERSION_CODES.HONEYCOMB) {
+                writeAheadLogging = db.enableWriteAheadLogging();
+            }
+            setCacheSize(db);
+            if (writeAheadLogging) {
+                // no sync at each commit : a power loss may lose the last
+                // transactions (resumed by the import), never corrupt the log
+                db.execSQL("PRAGMA synchronous=NORMAL");
+            }
+        }
+
+        /**
+         * Checkpoint the log (in write-ahead logging mode) : copy its pages
+         * into the database, without waiting for the readers in progress. The
+         * log file is then rewritten from its start by the next transaction.
+         * 
+         * @param db the database to checkpoint
+         */
+        void checkpoint(SQLiteDatabase db) {
+            if (writeAheadLogging) {
+                pragma(db, "wal_checkpoint");
+            }
+        }
+
+        /**
+         * Set the size of the page cache of the connection running the
+         * statements (the read connections of the pool, in write-ahead
+         * logging mode, keep the default size)
+         * 
+         * @param db the database
+         */
+        private static void setCacheSize(SQLiteDatabase db) {
+            long pageSize = pragma(db, "page_size");
+            if (pageSize > 0) {
+                db.execSQL("PRAGMA cache_size=" + CACHE_SIZE / pageSize);
+            }
+        }
+
+        /**
+         * Run a PRAGMA statement which returns a value
+         * 
+         * @param db the database
+         * @param pragma the statement, without "PRAGMA"
+         * @return the first value returned, as a long (0 if none)
+         */
+        private static long pragma(SQLiteDatabase db, String pragma) {
+            Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        /**
+         * Apply the migrations from the given version to the given version
+         * 
+         * @param db the database to migrate
+         * @param fromVersion the current version of the database (excluded)
+         * @param toVersion the version to reach (included)
+         */
+        private static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.version > fromVersion && migration.version <= toVersion) {
+                    migration.apply(db);
+                }
+            }
         }
 
+        /**
+         * Compute the search keys of the given columns of all the members
+         * 
+         * @param db the database to migrate
+         * @param sources the columns from which the keys are computed
+         * @param keys the search key column of each source column
+         */
+        private static void fillSearchKeys(SQLiteDatabase db, String[] sources, String[] keys) {
+            StringBuilder sql = new StringBuilder();
+            sql.append("UPDATE ").append(MEMBERS_TABLE).append(" SET ");
+            for (String key : keys) {
+                sql.append(key).append("=?, ");
+            }
+            sql.setLength(sql.length() - 2);
+            sql.append(" WHERE ").append(Member.ID).append("=?");
+            String[] columns = new String[sources.length + 1];
+            columns[0] = Member.ID;
+            System.arraycopy(sources, 0, columns, 1, sources.length);
+
+            SQLiteStatement update = db.compileStatement(sql.toString());
+            Cursor cursor = db.query(MEMBERS_TABLE, columns, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    for (int i = 0; i < sources.length; i++) {
+                        String key = SearchKey.fold(cursor.getString(i + 1));
+                        if (key == null) {
+                            update.bindNull(i + 1);
+                        } else {
+                            update.bindString(i + 1, key);
+                        }
+                    }
+                    update.bindLong(sources.length + 1, cursor.getLong(0));
+                    update.execute();
+                }
+            } finally {
+                cursor.close();
+                update.close();
+            }
+        }
+
+        /**
+         * (Re)build the content of the search table, and the triggers which
+         * keep it in sync with the members table, from the given columns.
+         * 
+         * @param db the database to migrate
+         * @param names the columns of the members indexed as names
+         * @param place the columns of the members indexed as place
+         * @param emails the columns of the members indexed as emails
+         */
+        private static void indexSearchColumns(SQLiteDatabase db, String[] names,
+                String[] place, String[] emails) {
+            String values = concat("new.", names) + ", " + concat("new.", place) + ", "
+                    + concat("new.", emails);
+            String[] sources = new String[names.length + place.length + emails.length];
+            System.arraycopy(names, 0, sources, 0, names.length);
+            System.arraycopy(place, 0, sources, names.length, place.length);
+            System.arraycopy(emails, 0, sources, names.length + place.length, emails.length);
+
+            String insert = "INSERT INTO " + SEARCH_TABLE + " (docid, " + SEARCH_NAMES + ", "
+                    + SEARCH_PLACE + ", " + SEARCH_EMAILS + ") ";
+            String delete = "DELETE FROM " + SEARCH_TABLE + " WHERE docid=old." + Member.ID
+                    + ";";
+            db.execSQL("DROP TRIGGER IF EXISTS " + SEARCH_TABLE + "_insert");
+            db.execSQL("DROP TRIGGER IF EXISTS " + SEARCH_TABLE + "_update");
+            db.execSQL("DROP TRIGGER IF EXISTS " + SEARCH_TABLE + "_delete");
+            db.execSQL("DELETE FROM " + SEARCH_TABLE);
+            db.execSQL(insert + "SELECT " + Member.ID + ", " + concat("", names) + ", "
+                    + concat("", place) + ", " + concat("", emails) + " FROM " + MEMBERS_TABLE);
+            db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_insert AFTER INSERT ON "
+                    + MEMBERS_TABLE + " BEGIN " + insert + "VALUES (new." + Member.ID + ", "
+                    + values + "); END");
+            db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_update AFTER UPDATE OF "
+                    + TextUtils.join(", ", sources) + " ON " + MEMBERS_TABLE + " BEGIN "
+                    + delete + insert + "VALUES (new." + Member.ID + ", " + values + "); END");
+            db.execSQL("CREATE TRIGGER " + SEARCH_TABLE + "_delete AFTER DELETE ON "
+                    + MEMBERS_TABLE + " BEGIN " + delete + " END");
+        }
+
+        /**
+         * @param prefix of the columns
+         * @param columns to concatenate
+         * @return the SQL concatenation of the given columns (null ones are
+         *         skipped), separated by spaces
+         */
+        private static String concat(String prefix, String... columns) {
+            StringBuilder sql = new StringBuilder();
+            for (String column : columns) {
+                if (sql.length() > 0) {
+                    sql.append(" || ' ' || ");
+                }
+                sql.append("ifnull(").append(prefix).append(column).append(", '')");
+            }
+            return sql.toString();
+        }
+
+        /**
+         * Compute the sort keys of the names of all the members
+         * 
+         * @param db the database to migrate
+         */
+        private static void fillSortKeys(SQLiteDatabase db) {
+            SQLiteStatement update = db.compileStatement("UPDATE " + MEMBERS_TABLE + " SET "
+                    + Member.LAST_NAME_SORT + "=?, " + Member.FIRST_NAME_SORT + "=? WHERE "
+                    + Member.ID + "=?");
+            Cursor cursor = db.query(MEMBERS_TABLE, new String[] {
+                    Member.ID, Member.LAST_NAME, Member.FIRST_NAME
+            }, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    update.bindBlob(1, SortKey.of(cursor.getString(1)));
+                    update.bindBlob(2, SortKey.of(cursor.getString(2)));
+                    update.bindLong(3, cursor.getLong(0));
+                    update.execute();
+                }
+            } finally {
+                cursor.close();
+                update.close();
+            }
+        }
+
+        /**
+         * Create an index on the given columns of the members table (if it
+         * doesn't exist yet : a migration may be applied again after a failure)
+         * 
+         * @param db the database to migrate
+         * @param columns the indexed columns, in order
+         */
+        private static void createIndex(SQLiteDatabase db, String... columns) {
+            StringBuilder sql = new StringBuilder();
+            sql.append("CREATE INDEX IF NOT EXISTS ").append(MEMBERS_TABLE);
+            for (String column : columns) {
+                sql.append('_').append(column);
+            }
+            sql.append(" ON ").append(MEMBERS_TABLE).append(" (");
+            sql.append(TextUtils.join(", ", columns));
+            sql.append(");");
+            db.execSQL(sql.toString());
+        }
+
+        /**
+         * Drop the index created on the given columns by
+         * {@link #createIndex(SQLiteDatabase, String...)} (if it exists)
+         * 
+         * @param db the database to migrate
+         * @param columns the indexed columns, in order
+         */
+        private static void dropIndex(SQLiteDatabase db, String... columns) {
+            StringBuilder sql = new StringBuilder();
+            sql.append("DROP INDEX IF EXISTS ").append(MEMBERS_TABLE);
+            for (String column : columns) {
+                sql.append('_').append(column);
+            }
+            sql.append(";");
+            db.execSQL(sql.toString());
+        }
+
+    }
+
+    /**
+     * A migration of the database schema to a new version
+     */
+    private abstract static class Migration {
+
+        /** The version of the schema after this migration */
+        final int version;
+
+        Migration(int version) {
+            this.version = version;
+        }
+
+        /**
+         * Apply this migration to the given database (in a transaction)
+         * 
+         * @param db the database to migrate
+         */
+        abstract void apply(SQLiteDatabase db);
     }
 
 }
@@ -0,0 +1,137 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded cache of the rows of the members, by code : the least
+ * recently used row is evicted when the cache is full. The rows are stored
+ * as the String values of the columns of
+ * {@link MembersProvider#CACHED_COLUMNS}.<br />
+ * The rows are removed by the writes (see {@link WriteBatch}). A row read
+ * from the database is only cached if no row has been removed since the
+ * read began : a row read while a write was in progress could be stale. The
+ * cache is thread-safe.
+ */
+class RowCache {
+
+    /** The cached rows, in access order */
+    private final Map<String, String[]> rows;
+
+    /** Number of lookups which found their row */
+    private long hitCount;
+
+    /** Number of lookups which didn't find their row */
+    private long missCount;
+
+    /** Number of removals (of a row, or of all the rows) */
+    private long invalidationCount;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new empty cache
+     * 
+     * @param capacity the maximum number of rows in the cache
+     */
+    RowCache(final int capacity) {
+        rows = new LinkedHashMap<String, String[]>(capacity * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * @param code of the member
+     * @return the cached row of the member, or null if not cached
+     */
+    synchronized String[] get(String code) {
+        String[] row = rows.get(code);
+        if (row != null) {
+            hitCount++;
+        } else {
+            missCount++;
+        }
+        return row;
+    }
+
+    /**
+     * Cache the row of a member, unless a row has been removed since it has
+     * been read
+     * 
+     * @param code of the member
+     * @param row of the member
+     * @param stamp the {@link #getInvalidationCount()} before the row has been
+     *            read
+     */
+    synchronized void put(String code, String[] row, long stamp) {
+        if (stamp == invalidationCount) {
+            rows.put(code, row);
+        }
+    }
+
+    /**
+     * Remove the row of a member (written or deleted)
+     * 
+     * @param code of the member
+     */
+    synchronized void remove(String code) {
+        invalidationCount++;
+        rows.remove(code);
+    }
+
+    /**
+     * Remove all the rows (when unknown members have been written or deleted)
+     */
+    synchronized void clear() {
+        invalidationCount++;
+        rows.clear();
+    }
+
+    /**
+     * @return the number of removals, to be given to
+     *         {@link #put(String, String[], long)}
+     */
+    synchronized long getInvalidationCount() {
+        return invalidationCount;
+    }
+
+    /**
+     * @return the number of lookups which found their row
+     */
+    synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * @return the number of lookups which didn't find their row
+     */
+    synchronized long getMissCount() {
+        return missCount;
+    }
+
+}
@@ -0,0 +1,505 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import ffck.members.Member;
+import ffck.members.SearchKey;
+import ffck.members.SortKey;
+import ffck.members.importer.ColumnPlan;
+import ffck.members.importer.MemberRecord;
+
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+/**
+ * A batch of writes in the members table, executed in a single transaction.
+ * The INSERT and UPDATE statements are compiled once per set of columns, and
+ * then reused for all the rows of the batch. The batch only records whether
+ * something has changed : the watchers are notified once, when the batch ends.<br />
+ * The records of an import (see {@link MemberRecord}) are bound from their
+ * slots, without going through a ContentValues.<br />
+ * The rows written are removed from the {@link RowCache} as they are written,
+ * and once again when the transaction ends : a row read (and cached) by
+ * another thread before the commit would be stale.
+ */
+class WriteBatch {
+
+    /** Beyond this number of members written, the whole cache is cleared */
+    private static final int MAX_WRITTEN_CODES = 1000;
+
+    /** The slots of the records from which the search keys are computed */
+    private static final int[] KEY_SLOTS = {
+            MemberRecord.LAST_NAME_SLOT, MemberRecord.FIRST_NAME_SLOT,
+            ColumnPlan.indexOf(Member.ADDRESS), ColumnPlan.indexOf(Member.CITY),
+            ColumnPlan.indexOf(Member.EMAIL), ColumnPlan.indexOf(Member.EMAIL_2)
+    };
+
+    /** The search key column of each slot of KEY_SLOTS */
+    private static final String[] KEY_COLUMNS = {
+            Member.LAST_NAME_KEY, Member.FIRST_NAME_KEY, Member.ADDRESS_KEY, Member.CITY_KEY,
+            Member.EMAIL_KEY, Member.EMAIL_2_KEY
+    };
+
+    /** The slots of the records from which the sort keys are computed */
+    private static final int[] SORT_SLOTS = {
+            MemberRecord.LAST_NAME_SLOT, MemberRecord.FIRST_NAME_SLOT
+    };
+
+    /** The sort key column of each slot of SORT_SLOTS */
+    private static final String[] SORT_COLUMNS = {
+            Member.LAST_NAME_SORT, Member.FIRST_NAME_SORT
+    };
+
+    /** The database in which the batch is executed */
+    private final SQLiteDatabase db;
+
+    /** The table in which the rows are written */
+    private final String table;
+
+    /** The cache of the rows of the members */
+    private final RowCache cache;
+
+    /** The codes of the members written in this batch */
+    private final Set<String> writtenCodes = new HashSet<String>();
+
+    /** True if unknown members have been written in this batch */
+    private boolean writtenAll;
+
+    /** The compiled statements, indexed by type and columns */
+    private final Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+
+    /** Statement used to retrieve the number of rows changed by an UPDATE */
+    private SQLiteStatement changesStatement;
+
+    /** Columns mask of the current record statements, or -1 */
+    private int recordMask = -1;
+
+    /** Compiled UPDATE for the records with the columns of recordMask */
+    private SQLiteStatement recordUpdate;
+
+    /** Compiled INSERT for the records with the columns of recordMask */
+    private SQLiteStatement recordInsert;
+
+    /** Number of nested batches (on the same thread) */
+    private int depth;
+
+    /** True if all the nested batches have been successful */
+    private boolean successful = true;
+
+    /** True if at least one row has been written */
+    private boolean changed;
+
+    /*
+     * Constructors
+     */
+
+    /**
+     * Build a new batch, and begin its transaction.
+     * 
+     * @param db in which the batch is executed
+     * @param table in which the rows are written
+     * @param cache of the rows of the members
+     */
+    WriteBatch(SQLiteDatabase db, String table, RowCache cache) {
+        this.db = db;
+        this.table = table;
+        this.cache = cache;
+        if (MembersProvider.SDK_VERSION >= Build.VERSION_CODES.HONEYCOMB) {
+            // IMMEDIATE : the readers (write-ahead logging) are not blocked
+            db.beginTransactionNonExclusive();
+        } else {
+            db.beginTransaction();
+        }
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Insert a row, with a compiled statement.
+     * 
+     * @param values of the row
+     * @return the row ID of the new row
+     * @throws android.database.SQLException if the row could not be inserted
+     */
+    long insert(ContentValues values) {
+        String key = statementKey("I", values);
+        SQLiteStatement statement = statements.get(key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            sql.append("INSERT INTO ").append(table).append(" (");
+            for (Entry<String, Object> entry : values.valueSet()) {
+                if (params.length() > 0) {
+                    sql.append(", ");
+                    params.append(", ");
+                }
+                sql.append(entry.getKey());
+                params.append("?");
+            }
+            sql.append(") VALUES (").append(params).append(")");
+            statement = compile(key, sql.toString());
+        }
+
+        int index = bindValues(statement, values);
+        if (index == 1) {
+            // no values : let SQLite raise the constraint error
+            return db.insertOrThrow(table, null, values);
+        }
+        long rowId = statement.executeInsert();
+        changed = true;
+        written(values.getAsString(Member.CODE));
+        return rowId;
+    }
+
+    /**
+     * Update the row of a member, with a compiled statement.
+     * 
+     * @param values new values of the row
+     * @param code of the member
+     * @return the number of rows updated
+     */
+    int updateByCode(ContentValues values, String code) {
+        if (values.size() == 0) {
+            return 0;
+        }
+
+        String key = statementKey("U", values);
+        SQLiteStatement statement = statements.get(key);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder();
+            sql.append("UPDATE ").append(table).append(" SET ");
+            boolean first = true;
+            for (Entry<String, Object> entry : values.valueSet()) {
+                if (!first) {
+                    sql.append(", ");
+                }
+                sql.append(entry.getKey()).append("=?");
+                first = false;
+            }
+            sql.append(" WHERE ").append(Member.CODE).append("=?");
+            statement = compile(key, sql.toString());
+        }
+
+        int index = bindValues(statement, values);
+        statement.bindString(index, code);
+        statement.execute();
+        if (changesStatement == null) {
+            changesStatement = db.compileStatement("SELECT changes()");
+        }
+        int count = (int)changesStatement.simpleQueryForLong();
+        if (count > 0) {
+            changed = true;
+            written(code);
+        }
+        return count;
+    }
+
+    /**
+     * Update the row of a member (identified by the code in the given values),
+     * or insert it if there is no such member yet.
+     * 
+     * @param values of the row, including the code of the member
+     * @return true if the row has been inserted, false if updated
+     * @throws android.database.SQLException if the row could not be inserted
+     */
+    boolean upsertByCode(ContentValues values) {
+        String code = values.getAsString(Member.CODE);
+        if (code != null && updateByCode(values, code) > 0) {
+            return false;
+        }
+        insert(values);
+        return true;
+    }
+
+    /**
+     * Update the row of the member of the given record (identified by its
+     * code), or insert it if there is no such member yet. The values are bound
+     * directly from the slots of the record, with its import hash : the
+     * statements are only looked up when the set of imported columns changes.
+     * 
+     * @param record of the member, with its code and import hash
+     * @return true if the row has been inserted, false if updated
+     * @throws android.database.SQLException if the row could not be inserted
+     */
+    boolean upsertRecord(MemberRecord record) {
+        int mask = record.getColumnsMask();
+        if (mask != recordMask) {
+            compileRecordStatements(mask);
+        }
+
+        int index = bindRecord(recordUpdate, record);
+        recordUpdate.bindString(index, record.getCode());
+        recordUpdate.execute();
+        if (changesStatement == null) {
+            changesStatement = db.compileStatement("SELECT changes()");
+        }
+        changed = true;
+        written(record.getCode());
+        if (changesStatement.simpleQueryForLong() > 0) {
+            return false;
+        }
+        bindRecord(recordInsert, record);
+        recordInsert.executeInsert();
+        return true;
+    }
+
+    /**
+     * Record that some rows (of unknown members) have been changed outside of
+     * the compiled statements.
+     */
+    void markChanged() {
+        changed = true;
+        written(null);
+    }
+
+    /**
+     * Record that the row of a member has been changed outside of the
+     * compiled statements.
+     * 
+     * @param code of the member
+     */
+    void markChanged(String code) {
+        changed = true;
+        written(code);
+    }
+
+    /**
+     * @return true if at least one row has been written in this batch
+     */
+    boolean hasChanged() {
+        return changed;
+    }
+
+    /**
+     * Begin a nested batch (on the same thread)
+     */
+    void enter() {
+        depth++;
+    }
+
+    /**
+     * End the current (nested) batch. The transaction is committed (or rolled
+     * back) when the outermost batch ends.
+     * 
+     * @param success true if the nested batch has been successful
+     * @return true if this was the outermost batch
+     */
+    boolean exit(boolean success) {
+        successful &= success;
+        if (depth > 0) {
+            depth--;
+            return false;
+        }
+        for (SQLiteStatement statement : statements.values()) {
+            statement.close();
+        }
+        statements.clear();
+        recordMask = -1;
+        recordUpdate = null;
+        recordInsert = null;
+        if (changesStatement != null) {
+            changesStatement.close();
+            changesStatement = null;
+        }
+        if (successful) {
+            db.setTransactionSuccessful();
+        }
+        db.endTransaction();
+
+        // rows cached during the transaction may be stale (or rolled back)
+        if (writtenAll) {
+            cache.clear();
+        } else {
+            for (String code : writtenCodes) {
+                cache.remove(code);
+            }
+        }
+        writtenCodes.clear();
+        if (!successful) {
+            changed = false;
+        }
+        return true;
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * Remove the row of a written member from the cache, and remember it to
+     * remove it again when the transaction ends.
+     * 
+     * @param code of the member, or null if unknown (or several members)
+     */
+    private void written(String code) {
+        if (code == null || writtenCodes.size() >= MAX_WRITTEN_CODES) {
+            writtenAll = true;
+            writtenCodes.clear();
+        }
+        if (writtenAll) {
+            cache.clear();
+        } else {
+            cache.remove(code);
+            writtenCodes.add(code);
+        }
+    }
+
+    /**
+     * @param type of statement
+     * @param values to bind
+     * @return a key identifying the statement for the given values
+     */
+    private static String statementKey(String type, ContentValues values) {
+        StringBuilder key = new StringBuilder(type);
+        for (Entry<String, Object> entry : values.valueSet()) {
+            key.append(':').append(entry.getKey());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Compile the given SQL, and cache the statement for the rest of the batch
+     * 
+     * @param key of the statement
+     * @param sql to compile
+     * @return compiled statement
+     */
+    private SQLiteStatement compile(String key, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        statements.put(key, statement);
+        return statement;
+    }
+
+    /**
+     * Compile (or retrieve) the UPDATE and INSERT statements of the records
+     * with the given columns.
+     * 
+     * @param mask of the imported columns (see
+     *            {@link MemberRecord#getColumnsMask()})
+     */
+    private void compileRecordStatements(int mask) {
+        String updateKey = "RU:" + mask;
+        String insertKey = "RI:" + mask;
+        recordUpdate = statements.get(updateKey);
+        recordInsert = statements.get(insertKey);
+        if (recordUpdate == null) {
+            StringBuilder sql = new StringBuilder();
+            StringBuilder columns = new StringBuilder();
+            StringBuilder params = new StringBuilder();
+            sql.append("UPDATE ").append(table).append(" SET ");
+            for (int i = 0; i < ColumnPlan.COLUMNS.length; i++) {
+                if ((mask & (1 << i)) != 0) {
+                    sql.append(ColumnPlan.COLUMNS[i]).append("=?, ");
+                    columns.append(ColumnPlan.COLUMNS[i]).append(", ");
+                    params.append("?, ");
+                }
+            }
+            for (int i = 0; i < KEY_COLUMNS.length; i++) {
+                if ((mask & (1 << KEY_SLOTS[i])) != 0) {
+                    sql.append(KEY_COLUMNS[i]).append("=?, ");
+                    columns.append(KEY_COLUMNS[i]).append(", ");
+                    params.append("?, ");
+                }
+            }
+            for (int i = 0; i < SORT_COLUMNS.length; i++) {
+                if ((mask & (1 << SORT_SLOTS[i])) != 0) {
+                    sql.append(SORT_COLUMNS[i]).append("=?, ");
+                    columns.append(SORT_COLUMNS[i]).append(", ");
+                    params.append("?, ");
+                }
+            }
+            sql.append(Member.IMPORT_HASH).append("=? WHERE ").append(Member.CODE).append("=?");
+            recordUpdate = compile(updateKey, sql.toString());
+
+            sql.setLength(0);
+            sql.append("INSERT INTO ").append(table).append(" (").append(columns).append(
+                    Member.IMPORT_HASH).append(") VALUES (").append(params).append("?)");
+            recordInsert = compile(insertKey, sql.toString());
+        }
+        recordMask = mask;
+    }
+
+    /**
+     * Bind the values of the given record to the given statement (compiled by
+     * {@link #compileRecordStatements(int)}), followed by its search keys, the
+     * sort keys of its names and its import hash.
+     * 
+     * @param statement to bind
+     * @param record to bind
+     * @return the index of the next parameter of the statement
+     */
+    private static int bindRecord(SQLiteStatement statement, MemberRecord record) {
+        int index = 1;
+        for (int i = 0; i < ColumnPlan.COLUMNS.length; i++) {
+            String value = record.get(i);
+            if (value != null) {
+                statement.bindString(index++, value);
+            }
+        }
+        for (int i = 0; i < KEY_SLOTS.length; i++) {
+            String value = record.get(KEY_SLOTS[i]);
+            if (value != null) {
+                statement.bindString(index++, SearchKey.fold(value));
+            }
+        }
+        for (int i = 0; i < SORT_SLOTS.length; i++) {
+            String value = record.get(SORT_SLOTS[i]);
+            if (value != null) {
+                statement.bindBlob(index++, SortKey.of(value));
+            }
+        }
+        statement.bindLong(index++, record.getImportHash());
+        return index;
+    }
+
+    /**
+     * Bind the given values to the given statement, in the order of the
+     * values set.
+     * 
+     * @param statement to bind
+     * @param values to bind
+     * @return the index of the next parameter of the statement
+     */
+    private static int bindValues(SQLiteStatement statement, ContentValues values) {
+        int index = 1;
+        for (Entry<String, Object> entry : values.valueSet()) {
+            Object value = entry.getValue();
+            if (value == null) {
+                statement.bindNull(index);
+            } else if (value instanceof Long || value instanceof Integer) {
+                statement.bindLong(index, ((Number)value).longValue());
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(index, (byte[])value);
+            } else {
+                statement.bindString(index, value.toString());
+            }
+            index++;
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,294 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.services;
+
+import ffck.members.MembersImportEngine;
+import ffck.members.R;
+import ffck.members.importer.ImportSource;
+
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.preference.PreferenceManager;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Background service watching a directory (configured in the preferences),
+ * and importing the new or modified exports copied in it.<br />
+ * The directory is watched with a {@link FileObserver}. The events are
+ * debounced : the directory is only scanned once no export has been written
+ * for {@link #DEBOUNCE_DELAY} ms (an export copied in several writes, or
+ * several exports copied together, give a single import). The scan and the
+ * import run on a background thread, never on the UI thread.<br />
+ * The scan is postponed while another import (started manually) is running.<br />
+ * The length and modification date of each imported export are recorded : an
+ * export is only imported again when it is modified. Several modified exports
+ * are imported together (merged by code), and the watchers of the members are
+ * notified once, at the end of the import.<br />
+ * The service is started (or stopped) by {@link #update(Context)} when the
+ * preferences change. Starting it again triggers a new scan, to catch the
+ * exports copied while it was not running.
+ */
+public class AutoImportService extends Service {
+
+    /** Delay without any new export before scanning the directory (ms) */
+    private static final long DEBOUNCE_DELAY = 5000;
+
+    /** Events of an export written (or moved) in the watched directory */
+    private static final int WATCHED_EVENTS = FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO;
+
+    /** Name of the SharedPreferences file holding the imported exports */
+    private static final String STATE_PREFERENCES_NAME = "auto_import_state";
+
+    /** Message of a scan, holding the directory to scan */
+    private static final int MESSAGE_SCAN = 1;
+
+    /** The thread of the scans and imports */
+    private HandlerThread thread;
+
+    /** The handler of the scans and imports thread */
+    private Handler handler;
+
+    /** The directory being watched, only used on the main thread (null if none) */
+    private File directory;
+
+    /** The observer of the watched directory (null if none) */
+    private FileObserver observer;
+
+    /** The engine of the import in progress (null if none) */
+    private volatile MembersImportEngine importEngine;
+
+    /*
+     * Service lifecycle
+     */
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        thread = new HandlerThread("AutoImport", Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        handler = new ScanHandler(thread.getLooper());
+    }
+
+    @Override
+    public void onStart(Intent intent, int startId) {
+        super.onStart(intent, startId);
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(this);
+        if (!isEnabled(this, preferences)) {
+            stopSelf();
+            return;
+        }
+
+        File newDirectory = new File(getDirectoryPath(this, preferences));
+        if (!newDirectory.equals(directory)) {
+            stopWatching();
+            directory = newDirectory;
+            observer = new ExportsObserver(directory);
+            observer.startWatching();
+        }
+        scheduleScan(directory);
+    }
+
+    @Override
+    public void onDestroy() {
+        stopWatching();
+        handler.removeMessages(MESSAGE_SCAN);
+        MembersImportEngine engine = importEngine;
+        if (engine != null) {
+            engine.cancel();
+        }
+        thread.getLooper().quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /*
+     * Business methods
+     */
+
+    /**
+     * Start or stop the service, depending on the preferences.
+     * 
+     * @param context android context
+     */
+    public static void update(Context context) {
+        SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        Intent intent = new Intent(context, AutoImportService.class);
+        if (isEnabled(context, preferences)) {
+            context.startService(intent);
+        } else {
+            context.stopService(intent);
+        }
+    }
+
+    /*
+     * Helper methods
+     */
+
+    /**
+     * @param context android context
+     * @param preferences the default preferences
+     * @return true if the automatic import is enabled
+     */
+    private static boolean isEnabled(Context context, SharedPreferences preferences) {
+        return preferences.getBoolean(context.getString(R.string.preferences_auto_import_key),
+                false);
+    }
+
+    /**
+     * @param context android context
+     * @param preferences the default preferences
+     * @return the path of the directory to watch
+     */
+    private static String getDirectoryPath(Context context, SharedPreferences preferences) {
+        return preferences.getString(context
+                .getString(R.string.preferences_auto_import_directory_key), context
+                .getString(R.string.preferences_auto_import_directory_default));
+    }
+
+    /**
+     * (Re)schedule the scan of the given directory, after the debounce delay.
+     * May be called from any thread : the directory is handed to the scans
+     * and imports thread by the message.
+     * 
+     * @param directory to scan
+     */
+    private void scheduleScan(File directory) {
+        handler.removeMessages(MESSAGE_SCAN);
+        handler.sendMessageDelayed(handler.obtainMessage(MESSAGE_SCAN, directory),
+                DEBOUNCE_DELAY);
+    }
+
+    /**
+     * Stop watching the current directory (if any)
+     */
+    private void stopWatching() {
+        if (observer != null) {
+            observer.stopWatching();
+            observer = null;
+        }
+    }
+
+    /**
+     * Scan the watched directory, and import the exports which have been
+     * added or modified since their last import. Executed on the scans and
+     * imports thread. While another import is running, the scan is scheduled
+     * again instead.
+     * 
+     * @param directory to scan
+     */
+    private void importModifiedSources(File directory) {
+        if (MembersImportEngine.isImportRunning()) {
+            scheduleScan(directory);
+            return;
+        }
+
+        SharedPreferences state = getSharedPreferences(STATE_PREFERENCES_NAME,
+                Context.MODE_PRIVATE);
+        List<ImportSource> sources = new ArrayList<ImportSource>();
+        List<String> stamps = new ArrayList<String>();
+        for (ImportSource source : MembersImportEngine.listSources(directory)) {
+            // stamped before the import : a modification during the import is
+            // detected by the next scan
+            String stamp = source.getLength() + ":" + source.lastModified();
+            if (!stamp.equals(state.getString(source.getKey(), null))) {
+                sources.add(source);
+                stamps.add(stamp);
+            }
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        MembersImportEngine engine = new MembersImportEngine(this);
+        importEngine = engine;
+        if (sources.size() == 1) {
+            engine.importSource(sources.get(0));
+        } else {
+            engine.importSources(sources.toArray(new ImportSource[sources.size()]));
+        }
+        importEngine = null;
+
+        if (!engine.isCancelled() && engine.getError() == null) {
+            SharedPreferences.Editor editor = state.edit();
+            for (int i = 0; i < sources.size(); i++) {
+                editor.putString(sources.get(i).getKey(), stamps.get(i));
+            }
+            editor.commit();
+        }
+    }
+
+    /*
+     * Inner classes
+     */
+
+    /**
+     * Handler of the scans and imports thread : scans the directory of each
+     * scan message.
+     */
+    private class ScanHandler extends Handler {
+
+        ScanHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public void handleMessage(Message message) {
+            if (message.what == MESSAGE_SCAN) {
+                importModifiedSources((File) message.obj);
+            }
+        }
+    }
+
+    /**
+     * Observer of the watched directory : schedules a scan when an export is
+     * written or moved in it (from the observer's thread).
+     */
+    private class ExportsObserver extends FileObserver {
+
+        /** The watched directory */
+        private final File directory;
+
+        ExportsObserver(File directory) {
+            super(directory.getAbsolutePath(), WATCHED_EVENTS);
+            this.directory = directory;
+        }
+
+        @Override
+        public void onEvent(int event, String path) {
+            if (path != null && MembersImportEngine.isSourceName(path)) {
+                scheduleScan(directory);
+            }
+        }
+    }
+
+}
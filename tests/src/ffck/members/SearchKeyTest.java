@@ -0,0 +1,72 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link SearchKey}
+ */
+public class SearchKeyTest extends TestCase {
+
+    public void testFoldCaseAndAccents() {
+        assertEquals("elodie", SearchKey.fold("\u00C9lodie"));
+        assertEquals("francois", SearchKey.fold("FRAN\u00C7OIS"));
+        assertEquals("noel-aime", SearchKey.fold("No\u00EBl-Aim\u00E9"));
+        assertEquals("lukasz", SearchKey.fold("\u0141ukasz"));
+        assertEquals("12 rue", SearchKey.fold("12 RUE"));
+        assertNull(SearchKey.fold(null));
+    }
+
+    public void testFoldLigatures() {
+        assertEquals("laetitia", SearchKey.fold("L\u00C6TITIA"));
+        assertEquals("oeuvre", SearchKey.fold("\u0152uvre"));
+        assertEquals("strasse", SearchKey.fold("Stra\u00DFe"));
+        assertEquals("ijssel", SearchKey.fold("\u0132ssel"));
+    }
+
+    public void testCharsOutsideTheTable() {
+        // the symbols of the table are kept, the other letters lower-cased
+        assertEquals("\u00D7", SearchKey.fold("\u00D7"));
+        assertEquals("\u03B1", SearchKey.fold("\u0391"));
+    }
+
+    public void testUpperBound() {
+        assertEquals("dupoo", SearchKey.upperBound("dupon"));
+        assertEquals("b", SearchKey.upperBound("a" + Character.MAX_VALUE));
+        assertNull(SearchKey.upperBound(""));
+        assertNull(SearchKey.upperBound(String.valueOf(Character.MAX_VALUE)));
+    }
+
+    public void testPrefixRange() {
+        String prefix = SearchKey.fold("Dup");
+        String upperBound = SearchKey.upperBound(prefix);
+        String[] inside = {
+                "dup", "dupont", "dupuis", "dup\u00E9"
+        };
+        for (String key : inside) {
+            assertTrue(key, key.compareTo(prefix) >= 0 && key.compareTo(upperBound) < 0);
+        }
+        String[] outside = {
+                "du", "duo", "duq", "durand"
+        };
+        for (String key : outside) {
+            assertFalse(key, key.compareTo(prefix) >= 0 && key.compareTo(upperBound) < 0);
+        }
+    }
+
+}
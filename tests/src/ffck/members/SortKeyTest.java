@@ -0,0 +1,71 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Tests of the {@link SortKey} : the keys compared as SQLite compares the
+ * BLOBs (unsigned bytes) must give the French order
+ */
+public class SortKeyTest extends TestCase {
+
+    /** The comparison of the BLOBs by SQLite */
+    private static final Comparator<byte[]> BLOB_ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] key1, byte[] key2) {
+            int length = Math.min(key1.length, key2.length);
+            for (int i = 0; i < length; i++) {
+                int diff = (key1[i] & 0xFF) - (key2[i] & 0xFF);
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            return key1.length - key2.length;
+        }
+    };
+
+    public void testFrenchOrder() {
+        assertOrder("Abel", "\u00C9milie", "Eric", "\u00C9tienne", "Zo\u00E9");
+        assertOrder("Dubois", "DUPONT", "Dupuis", "Durand");
+        assertOrder("Lebrun", "L\u00E9on", "Leroy");
+        assertOrder("cote", "c\u00F4te");
+    }
+
+    public void testEqualNamesHaveEqualKeys() {
+        assertTrue(Arrays.equals(SortKey.of("Dupont"), SortKey.of(new String("Dupont"))));
+        assertNull(SortKey.of(null));
+    }
+
+    /**
+     * Check that the sort keys of the given names are in increasing order
+     * 
+     * @param names in the expected order
+     */
+    private static void assertOrder(String... names) {
+        for (int i = 1; i < names.length; i++) {
+            byte[] previous = SortKey.of(names[i - 1]);
+            byte[] key = SortKey.of(names[i]);
+            assertTrue(names[i - 1] + " before " + names[i],
+                    BLOB_ORDER.compare(previous, key) < 0);
+        }
+    }
+
+}
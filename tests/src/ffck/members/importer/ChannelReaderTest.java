@@ -0,0 +1,171 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Tests of the {@link ChannelReader} : charset detection, and mapping of the
+ * chars read back to byte offsets
+ */
+public class ChannelReaderTest extends TestCase {
+
+    private static final String ACCENTS = "H\u00E9l\u00E8ne;\u00C9vry;12 \u20AC\n";
+
+    public void testAsciiIsReadAsWindows1252() throws IOException {
+        ChannelReader reader = new ChannelReader(channel("a;b\n".getBytes("US-ASCII")));
+        assertEquals("windows-1252", reader.getCharset().name());
+        assertEquals("a;b\n", readAll(reader, 100));
+    }
+
+    public void testUtf8IsDetected() throws IOException {
+        ChannelReader reader = new ChannelReader(channel(ACCENTS.getBytes("UTF-8")));
+        assertEquals("UTF-8", reader.getCharset().name());
+        assertEquals(ACCENTS, readAll(reader, 100));
+    }
+
+    public void testInvalidUtf8IsReadAsWindows1252() throws IOException {
+        ChannelReader reader = new ChannelReader(channel(ACCENTS.getBytes("windows-1252")));
+        assertEquals("windows-1252", reader.getCharset().name());
+        assertEquals(ACCENTS, readAll(reader, 100));
+    }
+
+    public void testByteOrderMarks() throws IOException {
+        ChannelReader reader = new ChannelReader(channel(concat(new byte[] {
+                (byte)0xEF, (byte)0xBB, (byte)0xBF
+        }, "a;b".getBytes("UTF-8"))));
+        assertEquals("UTF-8", reader.getCharset().name());
+        char[] buffer = new char[100];
+        assertEquals(3, reader.read(buffer, 0, buffer.length));
+        assertEquals(3, reader.getByteOffset(0));
+        assertEquals(6, reader.getByteOffset(3));
+
+        reader = new ChannelReader(channel(concat(new byte[] {
+                (byte)0xFF, (byte)0xFE
+        }, ACCENTS.getBytes("UTF-16LE"))));
+        assertEquals("UTF-16LE", reader.getCharset().name());
+        assertEquals(ACCENTS, readAll(reader, 100));
+    }
+
+    public void testUtf8ByteOffsets() throws IOException {
+        // 1, 2, 3 and 4 bytes (surrogate pair) chars
+        String content = "a\u00E9\u20AC\uD834\uDD1Eb";
+        ChannelReader reader = new ChannelReader(channel(content.getBytes("UTF-8")));
+        char[] buffer = new char[100];
+        assertEquals(6, reader.read(buffer, 0, buffer.length));
+        int[] offsets = {
+                0, 1, 3, 6, -1, 10, 11
+        };
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0) {
+                assertEquals("offset of char " + i, offsets[i], reader.getByteOffset(i));
+            }
+        }
+        // only the chars of the last read call can be mapped
+        assertEquals(-1, reader.getByteOffset(7));
+        assertEquals(-1, reader.read(buffer, 0, buffer.length));
+    }
+
+    public void testByteOffsetsAcrossBlocks() throws IOException {
+        StringBuilder content = new StringBuilder();
+        while (content.length() < 200 * 1024) {
+            content.append(ACCENTS);
+        }
+        byte[] bytes = content.toString().getBytes("UTF-8");
+        ChannelReader reader = new ChannelReader(channel(bytes));
+        char[] buffer = new char[1000];
+        long charOffset = 0;
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) > 0) {
+            long end = charOffset + count;
+            assertEquals(encodedLength(content, end), reader.getByteOffset(end));
+            assertEquals(encodedLength(content, charOffset + count / 2),
+                    reader.getByteOffset(charOffset + count / 2));
+            charOffset = end;
+        }
+        assertEquals(content.length(), charOffset);
+        assertEquals(bytes.length, reader.getBytesRead());
+    }
+
+    public void testResumeFromAByteOffset() throws IOException {
+        String content = ACCENTS + ACCENTS + ACCENTS;
+        byte[] bytes = content.getBytes("UTF-8");
+        ChannelReader reader = new ChannelReader(channel(bytes));
+        char[] buffer = new char[100];
+        reader.read(buffer, 0, buffer.length);
+        long offset = reader.getByteOffset(ACCENTS.length());
+
+        ByteArrayInputStream input = new ByteArrayInputStream(bytes);
+        input.skip(offset);
+        ChannelReader resumed = new ChannelReader(Channels.newChannel(input),
+                reader.getCharset(), offset);
+        assertEquals(ACCENTS + ACCENTS, readAll(resumed, 7));
+        assertEquals(bytes.length, resumed.getBytesRead());
+    }
+
+    /**
+     * @param bytes of the content
+     * @return a channel reading the bytes
+     */
+    private static ReadableByteChannel channel(byte[] bytes) {
+        return Channels.newChannel(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * @param first bytes
+     * @param second bytes
+     * @return the first bytes followed by the second ones
+     */
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] bytes = new byte[first.length + second.length];
+        System.arraycopy(first, 0, bytes, 0, first.length);
+        System.arraycopy(second, 0, bytes, first.length, second.length);
+        return bytes;
+    }
+
+    /**
+     * @param content read
+     * @param length number of chars at the start of the content
+     * @return the number of bytes of these chars, in UTF-8
+     * @throws IOException never (UTF-8 is supported)
+     */
+    private static long encodedLength(CharSequence content, long length) throws IOException {
+        return content.subSequence(0, (int)length).toString().getBytes("UTF-8").length;
+    }
+
+    /**
+     * @param reader to read until its end
+     * @param size of the buffer of each read call
+     * @return all the chars read
+     * @throws IOException never (read from an array)
+     */
+    private static String readAll(ChannelReader reader, int size) throws IOException {
+        StringBuilder chars = new StringBuilder();
+        char[] buffer = new char[size];
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) >= 0) {
+            chars.append(buffer, 0, count);
+        }
+        return chars.toString();
+    }
+
+}
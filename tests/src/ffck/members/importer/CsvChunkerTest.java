@@ -0,0 +1,94 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import ffck.members.importer.CsvChunker.Chunk;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of the {@link CsvChunker} : the records of the chunks, each parsed on
+ * its own, must be the records of the sequential parse, whatever the size of
+ * the chunks.
+ */
+public class CsvChunkerTest extends TestCase {
+
+    public void testPlainRecords() throws IOException {
+        assertChunkedParse("1;Dupont;Jean\n2;Martin;Paul\n3;Durand;Marie\n");
+    }
+
+    public void testQuotedLineBreaks() throws IOException {
+        assertChunkedParse("1;\"12 rue\ndu Port\";a\n2;\"x\ny\";b\n3;c;d\n");
+    }
+
+    public void testStrayQuoteInsideField() throws IOException {
+        // the quote of '5" rue' is a plain char, which must not hide the
+        // quoted line break of the next record
+        assertChunkedParse("1;5\" rue;a\n2;\"x\ny\";b\n3;c;d\n4;e;f\n");
+        assertChunkedParse("1;ab\"c;\"d\n\";\"e\"\"f\n\"\n2;g;h\n");
+    }
+
+    public void testEscapedAndEmptyQuotes() throws IOException {
+        assertChunkedParse("1;\"a\"\"b\nc\";d\n2;\"\";\"\"\"\n\";e\n3;\"\"x\"\n\";f\n");
+        assertChunkedParse("1;\"a\"b\"\n2\";c\n3;d\n");
+    }
+
+    public void testWindowsLineBreaks() throws IOException {
+        assertChunkedParse("1;\"a\r\nb\";c\r\n\r\n2;d\"e;f\r\n3;\"g\";h\r\n");
+    }
+
+    /**
+     * Check that the given CSV data gives the same records, parsed
+     * sequentially or in chunks of every possible size.
+     * 
+     * @param csv data to parse
+     * @throws IOException never (read from a string)
+     */
+    private static void assertChunkedParse(String csv) throws IOException {
+        List<String> expected = parse(new CsvTokenizer(new StringReader(csv), ';'));
+        for (int minLength = 1; minLength <= csv.length(); minLength++) {
+            CsvChunker chunker = new CsvChunker(new StringReader(csv), ';');
+            List<String> records = new ArrayList<String>();
+            Chunk chunk;
+            while ((chunk = chunker.nextChunk(minLength)) != null) {
+                records.addAll(parse(new CsvTokenizer(chunk.chars, chunk.length, ';')));
+            }
+            assertEquals("chunks of " + minLength + " chars", expected, records);
+        }
+    }
+
+    /**
+     * @param tokenizer to read
+     * @return all the records of the tokenizer, each as the list of its
+     *         fields
+     * @throws IOException never (read from a string)
+     */
+    private static List<String> parse(CsvTokenizer tokenizer) throws IOException {
+        List<String> records = new ArrayList<String>();
+        while (tokenizer.nextRecord()) {
+            records.add(Arrays.asList(tokenizer.getFields()).toString());
+        }
+        return records;
+    }
+
+}
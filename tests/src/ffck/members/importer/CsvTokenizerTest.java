@@ -0,0 +1,133 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests of the {@link CsvTokenizer}
+ */
+public class CsvTokenizerTest extends TestCase {
+
+    public void testPlainFields() throws IOException {
+        assertRecords("1;Dupont;Jean\n2;Martin;\n", "[1, Dupont, Jean]", "[2, Martin, ]");
+        assertRecords("a;;b", "[a, , b]");
+    }
+
+    public void testQuotedFields() throws IOException {
+        assertRecords("\"a;b\";\"c\nd\";\"e\"\"f\"\n", "[a;b, c\nd, e\"f]");
+        assertRecords("\"\";\"\"\"\"\n", "[, \"]");
+    }
+
+    public void testQuoteInsideAnUnquotedField() throws IOException {
+        // only a quote at the start of a field opens a quoted field
+        assertRecords("5\" rue;a\"b\n", "[5\" rue, a\"b]");
+    }
+
+    public void testCharsAfterTheClosingQuote() throws IOException {
+        assertRecords("\"a\"b;c\n", "[ab, c]");
+    }
+
+    public void testLineBreaks() throws IOException {
+        assertRecords("a;b\r\nc;d\re;f", "[a, b]", "[c, d]", "[e, f]");
+    }
+
+    public void testEmptyLinesAreSkipped() throws IOException {
+        assertRecords("\n\r\na\n\n\nb\r\n\r\n", "[a]", "[b]");
+        assertRecords("");
+    }
+
+    public void testUnterminatedQuote() throws IOException {
+        assertRecords("a;\"b\nc", "[a, b\nc]");
+    }
+
+    public void testFieldSlices() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("ab;\"c\"\"d\";"), ';');
+        assertTrue(tokenizer.nextRecord());
+        assertEquals(3, tokenizer.getFieldCount());
+        char[] buffer = tokenizer.getRecordBuffer();
+        assertEquals("c\"d", new String(buffer, tokenizer.getFieldStart(1),
+                tokenizer.getFieldLength(1)));
+        assertEquals(0, tokenizer.getFieldLength(2));
+        assertFalse(tokenizer.nextRecord());
+    }
+
+    public void testCharOffsets() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a;b\r\nc\n\"d\ne\"\n"), ';');
+        assertTrue(tokenizer.nextRecord());
+        assertEquals(5, tokenizer.getCharOffset());
+        assertTrue(tokenizer.nextRecord());
+        assertEquals(7, tokenizer.getCharOffset());
+        assertTrue(tokenizer.nextRecord());
+        assertEquals(13, tokenizer.getCharOffset());
+        assertFalse(tokenizer.nextRecord());
+    }
+
+    public void testRecordsLargerThanTheBuffers() throws IOException {
+        // larger than the input buffer, the record buffer and the fields
+        StringBuilder csv = new StringBuilder();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            field.append((char)('a' + i % 26));
+        }
+        for (int i = 0; i < 100; i++) {
+            csv.append(i).append(';');
+        }
+        csv.append('"').append(field).append("\"\nx\n");
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv.toString()), ';');
+        assertTrue(tokenizer.nextRecord());
+        assertEquals(101, tokenizer.getFieldCount());
+        assertEquals("99", tokenizer.getField(99));
+        assertEquals(field.toString(), tokenizer.getField(100));
+        assertTrue(tokenizer.nextRecord());
+        assertEquals("x", tokenizer.getField(0));
+        assertEquals(csv.length(), tokenizer.getCharOffset());
+    }
+
+    public void testReadFromChars() throws IOException {
+        char[] chars = "a;b\nc;d\nunused".toCharArray();
+        CsvTokenizer tokenizer = new CsvTokenizer(chars, 8, ';');
+        List<String> records = new ArrayList<String>();
+        while (tokenizer.nextRecord()) {
+            records.add(Arrays.asList(tokenizer.getFields()).toString());
+        }
+        assertEquals(Arrays.asList("[a, b]", "[c, d]"), records);
+    }
+
+    /**
+     * Check the records of the given CSV data
+     * 
+     * @param csv data to parse
+     * @param expected records, each as the list of its fields
+     * @throws IOException never (read from a string)
+     */
+    private static void assertRecords(String csv, String... expected) throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(csv), ';');
+        List<String> records = new ArrayList<String>();
+        while (tokenizer.nextRecord()) {
+            records.add(Arrays.asList(tokenizer.getFields()).toString());
+        }
+        assertEquals(Arrays.asList(expected), records);
+    }
+
+}
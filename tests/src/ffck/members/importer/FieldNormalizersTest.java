@@ -0,0 +1,64 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import ffck.members.Member;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link FieldNormalizers}
+ */
+public class FieldNormalizersTest extends TestCase {
+
+    public void testNormalizerOfEachColumn() {
+        FieldNormalizers normalizers = new FieldNormalizers();
+        assertEquals("Dupont", normalize(normalizers.forColumn(Member.LAST_NAME), "DUPONT"));
+        assertEquals("Evry", normalize(normalizers.forColumn(Member.CITY), "EVRY"));
+        assertEquals("12 rue du port", normalize(normalizers.forColumn(Member.ADDRESS),
+                "12 RUE DU PORT"));
+        assertEquals("+33612345678", normalize(normalizers.forColumn(Member.PHONE_MOBILE),
+                "06 12 34 56 78"));
+        assertEquals("A@B.FR", normalize(normalizers.forColumn(Member.EMAIL), "A@B.FR"));
+    }
+
+    public void testGender() {
+        assertEquals(Member.GENDER_MALE, normalize(FieldNormalizers.GENDER, "H"));
+        assertEquals(Member.GENDER_FEMALE, normalize(FieldNormalizers.GENDER, "F"));
+        assertEquals("HF", normalize(FieldNormalizers.GENDER, "HF"));
+    }
+
+    public void testStatefulNormalizersAreSharedBySet() {
+        FieldNormalizers normalizers = new FieldNormalizers();
+        assertSame(normalizers.forColumn(Member.FIRST_NAME),
+                normalizers.forColumn(Member.COUNTRY));
+        assertSame(normalizers.getPhoneNormalizer(), normalizers.forColumn(Member.PHONE_HOME));
+        assertNotSame(normalizers.getPhoneNormalizer(),
+                new FieldNormalizers().getPhoneNormalizer());
+    }
+
+    /**
+     * @param normalizer to apply
+     * @param value to normalize, given in the middle of a larger buffer
+     * @return the normalized value
+     */
+    private static String normalize(FieldNormalizer normalizer, String value) {
+        char[] buffer = ("[" + value + "]").toCharArray();
+        return normalizer.normalize(buffer, 1, value.length());
+    }
+
+}
@@ -0,0 +1,78 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link NameCapitalizer}
+ */
+public class NameCapitalizerTest extends TestCase {
+
+    private NameCapitalizer capitalizer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        capitalizer = new NameCapitalizer();
+    }
+
+    public void testEveryWordIsCapitalized() {
+        assertEquals("Jean", normalize("JEAN"));
+        assertEquals("Jean-Pierre", normalize("jean-pierre"));
+        assertEquals("Saint Martin Du Vivier", normalize("SAINT MARTIN DU VIVIER"));
+        assertEquals("A.B,C_D", normalize("a.b,c_d"));
+    }
+
+    public void testAccentedLetters() {
+        assertEquals("\u00C9lodie", normalize("\u00C9LODIE"));
+        assertEquals("\u00C9vry-\u00C9glise", normalize("\u00E9vry-\u00E9glise"));
+    }
+
+    public void testEmptyValue() {
+        assertEquals("", normalize(""));
+    }
+
+    public void testValuesLongerThanTheBuffer() {
+        StringBuilder value = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            value.append(" WORD");
+            expected.append(" Word");
+        }
+        assertEquals(expected.toString(), normalize(value.toString()));
+    }
+
+    public void testRepeatedValuesAreShared() {
+        String first = normalize("PARIS");
+        assertEquals("Paris", first);
+        assertSame(first, normalize("paris"));
+        // the other values don't change the cached one
+        assertEquals("Lyon", normalize("LYON"));
+        assertEquals("Paris", normalize("Paris"));
+    }
+
+    /**
+     * @param value to normalize, given in the middle of a larger buffer
+     * @return the normalized value
+     */
+    private String normalize(String value) {
+        char[] buffer = ("[" + value + "]").toCharArray();
+        return capitalizer.normalize(buffer, 1, value.length());
+    }
+
+}
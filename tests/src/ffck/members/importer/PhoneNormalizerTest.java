@@ -0,0 +1,83 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the {@link PhoneNormalizer}
+ */
+public class PhoneNormalizerTest extends TestCase {
+
+    private PhoneNormalizer normalizer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        normalizer = new PhoneNormalizer();
+    }
+
+    public void testFrenchNationalNumbers() {
+        assertEquals("+33612345678", normalize("06 12 34 56 78"));
+        assertEquals("+33123456789", normalize("01.23.45.67.89"));
+        // the trunk prefix is often forgotten
+        assertEquals("+33612345678", normalize("612345678"));
+    }
+
+    public void testInternationalNumbers() {
+        assertEquals("+41221234567", normalize("+41 22 123 45 67"));
+        assertEquals("+41221234567", normalize("0041 22 123 45 67"));
+    }
+
+    public void testShortNumbersAreKept() {
+        assertEquals("0", normalize("0"));
+        assertEquals("3631", normalize("3631"));
+        assertEquals("112", normalize("112"));
+        assertEquals("0612345", normalize("06 12 345"));
+    }
+
+    public void testCountryRules() {
+        normalizer.setCountry("Suisse");
+        assertEquals("+41221234567", normalize("022 123 45 67"));
+        normalizer.setCountry("Espagne");
+        assertEquals("+34912345678", normalize("912 345 678"));
+        normalizer.setCountry("Belgique");
+        assertEquals("+3221234567", normalize("02 123 45 67"));
+        assertEquals("+32470123456", normalize("0470 12 34 56"));
+    }
+
+    public void testUnknownCountry() {
+        normalizer.setCountry("Japon");
+        assertEquals("0312345678", normalize("03-1234-5678"));
+        assertEquals("+81312345678", normalize("+81 3 1234 5678"));
+    }
+
+    public void testNotAPhoneNumber() {
+        assertEquals("n/a", normalize("n/a"));
+        assertEquals("", normalize("  "));
+    }
+
+    /**
+     * @param value to normalize
+     * @return the normalized value
+     */
+    private String normalize(String value) {
+        char[] buffer = ("[" + value + "]").toCharArray();
+        return normalizer.normalize(buffer, 1, value.length());
+    }
+
+}
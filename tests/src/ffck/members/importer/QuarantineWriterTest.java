@@ -0,0 +1,106 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.importer;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+
+/**
+ * Tests of the {@link QuarantineWriter} : the rejected rows are written as
+ * they were read, and can be read again.
+ */
+public class QuarantineWriterTest extends TestCase {
+
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("quarantine", ".csv");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testRawFieldsAreWritten() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader(
+                "CODE ADHERENT;NOM;TEL;COMMENTAIRE\n"
+                        + "012345;dupont;06 12 34 56 78;\"a;b\"\"c\nd\"\n"), ';');
+        assertTrue(tokenizer.nextRecord());
+        String[] header = tokenizer.getFields();
+        assertTrue(tokenizer.nextRecord());
+        MemberRecord record = new MemberRecord();
+        record.setRawFields(tokenizer);
+        record.setRow(1);
+
+        QuarantineWriter writer = new QuarantineWriter(file, false);
+        writer.setHeader(header);
+        writer.reject(record, "Invalid; code");
+        writer.close();
+        assertEquals(1, writer.getRejectedCount());
+        assertFalse(writer.hasFailed());
+
+        tokenizer = new CsvTokenizer(read(file), ';');
+        assertTrue(tokenizer.nextRecord());
+        assertEquals("[CODE ADHERENT, NOM, TEL, COMMENTAIRE, ROW, REASON]", toString(tokenizer
+                .getFields()));
+        assertTrue(tokenizer.nextRecord());
+        assertEquals("[012345, dupont, 06 12 34 56 78, a;b\"c\nd, 1, Invalid; code]",
+                toString(tokenizer.getFields()));
+        assertFalse(tokenizer.nextRecord());
+    }
+
+    public void testRawFieldsOfRecycledRecord() throws IOException {
+        CsvTokenizer tokenizer = new CsvTokenizer(new StringReader("a;bb;ccc\n;d\n"), ';');
+        MemberRecord record = new MemberRecord();
+        assertTrue(tokenizer.nextRecord());
+        record.setRawFields(tokenizer);
+        assertTrue(tokenizer.nextRecord());
+        record.setRawFields(tokenizer);
+        assertEquals(2, record.getRawFieldCount());
+        assertEquals("", record.getRawField(0));
+        assertEquals("d", record.getRawField(1));
+    }
+
+    /**
+     * @param fields to format
+     * @return the fields, as a list
+     */
+    private static String toString(String[] fields) {
+        return Arrays.asList(fields).toString();
+    }
+
+    /**
+     * @param file to read
+     * @return a reader of the (UTF-8) file
+     * @throws IOException if unable to open the file
+     */
+    private static Reader read(File file) throws IOException {
+        return new InputStreamReader(new FileInputStream(file), "UTF-8");
+    }
+
+}
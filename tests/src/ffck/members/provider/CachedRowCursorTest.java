@@ -0,0 +1,57 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of the numeric conversions of the {@link CachedRowCursor} (the same
+ * as the CAST of SQLite)
+ */
+public class CachedRowCursorTest extends TestCase {
+
+    public void testToLong() {
+        assertEquals(0, CachedRowCursor.toLong(null));
+        assertEquals(2009, CachedRowCursor.toLong("2009"));
+        assertEquals(-7, CachedRowCursor.toLong("-7"));
+        assertEquals(5, CachedRowCursor.toLong(" +5 "));
+        assertEquals(12, CachedRowCursor.toLong(" 12abc"));
+        assertEquals(3, CachedRowCursor.toLong("3.9e2"));
+        assertEquals(0, CachedRowCursor.toLong("abc"));
+        assertEquals(0, CachedRowCursor.toLong("0x10"));
+        assertEquals(0, CachedRowCursor.toLong(""));
+    }
+
+    public void testToLongSaturates() {
+        assertEquals(Long.MAX_VALUE, CachedRowCursor.toLong("99999999999999999999"));
+        assertEquals(Long.MIN_VALUE, CachedRowCursor.toLong("-99999999999999999999"));
+        assertEquals(Long.MIN_VALUE, CachedRowCursor.toLong("-9223372036854775808"));
+    }
+
+    public void testToDouble() {
+        assertEquals(0.0, CachedRowCursor.toDouble(null));
+        assertEquals(3.9, CachedRowCursor.toDouble("3.9"));
+        assertEquals(390.0, CachedRowCursor.toDouble("3.9e2"));
+        assertEquals(1000.0, CachedRowCursor.toDouble("1e3x"));
+        assertEquals(0.5, CachedRowCursor.toDouble(".5"));
+        assertEquals(-0.25, CachedRowCursor.toDouble("  -2.5e-1z"));
+        assertEquals(12.0, CachedRowCursor.toDouble("12e"));
+        assertEquals(0.0, CachedRowCursor.toDouble("abc"));
+        assertEquals(0.0, CachedRowCursor.toDouble("-"));
+    }
+
+}
@@ -0,0 +1,75 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import ffck.members.Member;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link MembersProvider#buildKeysetCondition(String)}
+ */
+public class KeysetConditionTest extends TestCase {
+
+    private static final String A = "(SELECT a FROM members WHERE code=?)";
+
+    private static final String CODE = "(SELECT code FROM members WHERE code=?)";
+
+    public void testAscendingOrder() {
+        assertEquals("a >= " + A + " AND (a > " + A + " OR (a = " + A + " AND (code > " + CODE
+                + ")))", MembersProvider.buildKeysetCondition("a ASC, code ASC"));
+    }
+
+    public void testDescendingOrder() {
+        assertEquals("a <= " + A + " AND (a < " + A + " OR (a = " + A + " AND (code > " + CODE
+                + ")))", MembersProvider.buildKeysetCondition(" a DESC ,code"));
+    }
+
+    public void testParametersOfTheListOrders() {
+        // the range of the first column, 2 per column but the last, 1 for the code
+        assertEquals(6, countParameters(Member.ORDER_BY_LAST_NAME));
+        assertEquals(6, countParameters(Member.ORDER_BY_FIRST_NAME));
+        assertEquals(2, countParameters(Member.CODE));
+    }
+
+    public void testUnsupportedOrders() {
+        assertUnsupported("a ASC");
+        assertUnsupported("a ASC, code COLLATE NOCASE");
+        assertUnsupported("lower(a), code");
+    }
+
+    private static int countParameters(String orderBy) {
+        String condition = MembersProvider.buildKeysetCondition(orderBy);
+        int count = 0;
+        for (int i = 0; i < condition.length(); i++) {
+            if (condition.charAt(i) == '?') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void assertUnsupported(String orderBy) {
+        try {
+            MembersProvider.buildKeysetCondition(orderBy);
+            fail("Order accepted : " + orderBy);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+/* 
+ * Copyright (C) 2009 Vincent Behar
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package ffck.members.provider;
+
+import junit.framework.TestCase;
+
+/**
+ * Tests of {@link MembersProvider#buildMatchExpression(String)}
+ */
+public class MatchExpressionTest extends TestCase {
+
+    public void testEveryWordIsAPrefix() {
+        assertEquals("dupont*", MembersProvider.buildMatchExpression("dupont"));
+        assertEquals("jean* dupont*", MembersProvider.buildMatchExpression("  Jean DUPONT "));
+    }
+
+    public void testWordsAreFolded() {
+        assertEquals("helene* evry*",
+                MembersProvider.buildMatchExpression("H\u00e9l\u00e8ne \u00c9vry"));
+        assertEquals("oeuvre*", MembersProvider.buildMatchExpression("\u0152uvre"));
+    }
+
+    public void testOperatorsAreNotPassedThrough() {
+        // lower-cased, OR is a plain word
+        assertEquals("a* or* b* c*", MembersProvider.buildMatchExpression("a OR-b \"c\""));
+        assertEquals("jean* paris*", MembersProvider.buildMatchExpression("jean* (paris)"));
+    }
+
+    public void testNoWord() {
+        assertNull(MembersProvider.buildMatchExpression(""));
+        assertNull(MembersProvider.buildMatchExpression(" -*\" "));
+    }
+
+}